@@ -13,10 +13,16 @@ java {
 repositories {
     mavenCentral()
     maven("https://repo.papermc.io/repository/maven-public/")
+    maven("https://jitpack.io") // VaultAPI
+    maven("https://repo.rosewooddev.io/repository/public/") // PlayerPoints
 }
 
 dependencies {
     compileOnly("io.papermc.paper:paper-api:1.21.1-R0.1-SNAPSHOT") // API совместима с 1.21.8
+    // API сервисов для нативных действий (vault_deposit, luckperms, playerpoints_give); на сервере — опциональны
+    compileOnly("com.github.MilkBowl:VaultAPI:1.7.1")
+    compileOnly("net.luckperms:api:5.4")
+    compileOnly("org.black_ixx:playerpoints:3.2.7")
     implementation("com.zaxxer:HikariCP:5.1.0")
     implementation("org.slf4j:slf4j-api:2.0.16")
     implementation("mysql:mysql-connector-java:8.0.33")
@@ -1,25 +1,28 @@
 package su.primecorp.primerewards;
 
-import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
-import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.plugin.java.JavaPlugin;
 import su.primecorp.primerewards.core.Dispatcher;
 import su.primecorp.primerewards.core.RewardExecutor;
 import su.primecorp.primerewards.core.RewardSource;
 import su.primecorp.primerewards.mysql.DbPool;
-import su.primecorp.primerewards.sources.HotMcVoteRewardSource;
+import su.primecorp.primerewards.mysql.DeadLetterStore;
+import su.primecorp.primerewards.mysql.DeliveryRollupStore;
 import su.primecorp.primerewards.sources.OrdersRewardSource;
-import su.primecorp.primerewards.sources.TelegramSubscriptionRewardSource;
+import su.primecorp.primerewards.sources.TableRewardSource;
 import su.primecorp.primerewards.util.SafeConfig;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
+import java.util.stream.Collectors;
 
 public final class PrimeRewardsApproverPlugin extends JavaPlugin {
 
@@ -27,8 +30,8 @@ public final class PrimeRewardsApproverPlugin extends JavaPlugin {
     private Dispatcher dispatcher;
     private RewardExecutor executor;
 
-    private FileConfiguration tgConfig;
-    private FileConfiguration votesConfig;
+    /** конфиг табличного источника и значения по умолчанию для его ключей */
+    private record TableSourceConfig(SafeConfig cfg, Map<String, String> defaults) {}
 
     private final AtomicBoolean started = new AtomicBoolean(false);
 
@@ -37,46 +40,44 @@ public final class PrimeRewardsApproverPlugin extends JavaPlugin {
         saveDefaultConfig();
         saveResource("tg_rewards.yml", false);
         saveResource("votes_rewards.yml", false);
-
-        this.tgConfig = YamlConfiguration.loadConfiguration(new File(getDataFolder(), "tg_rewards.yml"));
-        this.votesConfig = YamlConfiguration.loadConfiguration(new File(getDataFolder(), "votes_rewards.yml"));
+        saveResource("primerewards.jfc", false); // профиль JFR для событий выдачи
+        if (!new File(getDataFolder(), "sources").exists()) {
+            saveResource("sources/_example.yml", false);
+        }
 
         SafeConfig cfg = new SafeConfig(getConfig());
-        SafeConfig tgCfg = new SafeConfig(tgConfig);
-        SafeConfig votesCfg = new SafeConfig(votesConfig);
-
         setupLogging(cfg);
+        Map<String, TableSourceConfig> tableSources = loadTableSources();
 
-        try {
-            this.db = new DbPool(cfg); // одна БД external_data для всех источников
-        } catch (Exception e) {
-            getLogger().log(Level.SEVERE, "Failed to init DB pool", e);
-            Bukkit.getPluginManager().disablePlugin(this);
-            return;
-        }
+        // одна БД external_data для всех источников; подключается диспетчер в своём потоке
+        this.db = new DbPool(cfg);
 
-        this.executor = new RewardExecutor(this, cfg, tgCfg, votesCfg);
+        this.executor = new RewardExecutor(this, cfg, tierConfigs(tableSources));
 
-        List<RewardSource> sources = new ArrayList<>();
-        sources.add(new OrdersRewardSource(db, cfg, getLogger()));
+        DeadLetterStore deadLetters = cfg.getConfig().getBoolean("deadLetter.enabled", true)
+                ? new DeadLetterStore(db, cfg) : null;
+        DeliveryRollupStore rollup = cfg.getConfig().getBoolean("rollup.enabled", true)
+                ? new DeliveryRollupStore(db, cfg) : null;
 
-        boolean tgEnabled = tgCfg.getConfig().getBoolean("enabled", true);
-        if (tgEnabled) {
-            sources.add(new TelegramSubscriptionRewardSource(db, tgCfg, getLogger()));
-        }
+        List<RewardSource> sources = new ArrayList<>();
+        sources.add(new OrdersRewardSource(db, cfg, getLogger(), deadLetters));
 
-        boolean votesEnabled = votesCfg.getConfig().getBoolean("enabled", true);
-        if (votesEnabled) {
-            sources.add(new HotMcVoteRewardSource(db, votesCfg, getLogger()));
-        }
+        // все табличные источники делят один диспетчер и общую выборку (polling.combinedFetch)
+        tableSources.forEach((name, ts) -> {
+            if (!ts.cfg().getConfig().getBoolean("enabled", true)) return;
+            try {
+                sources.add(new TableRewardSource(name, db, ts.cfg(), ts.defaults(), deadLetters));
+            } catch (IllegalArgumentException e) {
+                getLogger().warning("Source '" + name + "' skipped: " + e.getMessage());
+            }
+        });
 
-        this.dispatcher = new Dispatcher(this, cfg, executor, sources, getLogger(), db);
+        this.dispatcher = new Dispatcher(this, cfg, executor, sources, getLogger(), db, deadLetters, rollup);
         this.dispatcher.start();
         started.set(true);
 
-        getLogger().info("PrimeRewardsApprover enabled. Sources: orders"
-                + (tgEnabled ? ", telegram" : "")
-                + (votesEnabled ? ", votes" : ""));
+        getLogger().info("PrimeRewardsApprover enabled. Sources: "
+                + sources.stream().map(RewardSource::name).collect(Collectors.joining(", ")));
     }
 
     @Override
@@ -89,6 +90,40 @@ public final class PrimeRewardsApproverPlugin extends JavaPlugin {
         getLogger().info("PrimeRewardsApprover disabled.");
     }
 
+    /** прежние tg_rewards.yml / votes_rewards.yml и sources/*.yml (имя — ключ name или имя файла) */
+    private Map<String, TableSourceConfig> loadTableSources() {
+        Map<String, TableSourceConfig> out = new LinkedHashMap<>();
+        out.put("telegram", new TableSourceConfig(loadYaml(new File(getDataFolder(), "tg_rewards.yml")),
+                TableRewardSource.TELEGRAM_DEFAULTS));
+        out.put("votes", new TableSourceConfig(loadYaml(new File(getDataFolder(), "votes_rewards.yml")),
+                TableRewardSource.VOTES_DEFAULTS));
+
+        File[] files = new File(getDataFolder(), "sources").listFiles((dir, n) -> n.endsWith(".yml"));
+        if (files == null) return out;
+        Arrays.sort(files);
+        for (File f : files) {
+            SafeConfig sc = loadYaml(f);
+            String raw = sc.getString("name", f.getName().substring(0, f.getName().length() - 4));
+            String name = TableRewardSource.sanitizeName(raw);
+            if (name == null || name.equals("orders") || out.containsKey(name)) {
+                getLogger().warning("sources/" + f.getName() + " skipped: invalid or duplicate source name '" + raw + "'");
+                continue;
+            }
+            out.put(name, new TableSourceConfig(sc, Map.of()));
+        }
+        return out;
+    }
+
+    private static Map<String, SafeConfig> tierConfigs(Map<String, TableSourceConfig> tableSources) {
+        Map<String, SafeConfig> out = new LinkedHashMap<>();
+        tableSources.forEach((name, ts) -> out.put(name, ts.cfg()));
+        return out;
+    }
+
+    private static SafeConfig loadYaml(File f) {
+        return new SafeConfig(YamlConfiguration.loadConfiguration(f));
+    }
+
     private void setupLogging(SafeConfig cfg) {
         String level = cfg.getString("logging.level", "INFO").toUpperCase();
         Level l = switch (level) {
@@ -105,6 +140,9 @@ public final class PrimeRewardsApproverPlugin extends JavaPlugin {
         if (args.length == 0) {
             sender.sendMessage("§e/primerewards reload §7— перезагрузить конфиг");
             sender.sendMessage("§e/primerewards stats  §7— показать метрики");
+            sender.sendMessage("§e/primerewards stats daily [days] §7— суточная сводка выдач");
+            sender.sendMessage("§e/primerewards deadletter list [source] §7— карантин выдач");
+            sender.sendMessage("§e/primerewards deadletter retry <source> <id|all> §7— вернуть в выдачу");
             return true;
         }
         switch (args[0].toLowerCase()) {
@@ -114,21 +152,106 @@ public final class PrimeRewardsApproverPlugin extends JavaPlugin {
                     return true;
                 }
                 reloadConfig();
-                this.tgConfig = YamlConfiguration.loadConfiguration(new File(getDataFolder(), "tg_rewards.yml"));
-                this.votesConfig = YamlConfiguration.loadConfiguration(new File(getDataFolder(), "votes_rewards.yml"));
-
                 SafeConfig cfg = new SafeConfig(getConfig());
-                SafeConfig tgCfg = new SafeConfig(tgConfig);
-                SafeConfig votesCfg = new SafeConfig(votesConfig);
 
-                executor.reload(cfg, tgCfg, votesCfg);
+                // tiers перечитываются; таблицы и набор источников — только при перезапуске
+                executor.reload(cfg, tierConfigs(loadTableSources()));
                 dispatcher.reload(cfg);
 
                 sender.sendMessage("§aКонфиг перезагружен.");
             }
-            case "stats" -> sender.sendMessage(dispatcher.dumpStats());
+            case "stats" -> {
+                if (args.length > 1 && args[1].equalsIgnoreCase("daily")) {
+                    handleDailyStats(sender, args);
+                } else {
+                    sender.sendMessage(dispatcher.dumpStats());
+                }
+            }
+            case "deadletter" -> {
+                if (!sender.hasPermission("primerewards.deadletter")) {
+                    sender.sendMessage("§cНедостаточно прав.");
+                    return true;
+                }
+                handleDeadLetter(sender, args);
+            }
             default -> sender.sendMessage("§cНеизвестная подкоманда.");
         }
         return true;
     }
+
+    private void handleDeadLetter(CommandSender sender, String[] args) {
+        if (!dispatcher.deadLetterEnabled()) {
+            sender.sendMessage("§cКарантин выключен (deadLetter.enabled).");
+            return;
+        }
+        String sub = args.length > 1 ? args[1].toLowerCase() : "list";
+        switch (sub) {
+            case "list" -> {
+                String source = args.length > 2 ? args[2].toLowerCase() : null;
+                dispatcher.deadLetterList(source, 20).whenComplete((lines, err) -> reply(sender, () -> {
+                    if (err != null) {
+                        sender.sendMessage("§cОшибка: " + err.getMessage());
+                    } else if (lines.isEmpty()) {
+                        sender.sendMessage("§aКарантин пуст.");
+                    } else {
+                        lines.forEach(sender::sendMessage);
+                    }
+                }));
+            }
+            case "retry" -> {
+                if (args.length < 4) {
+                    sender.sendMessage("§e/primerewards deadletter retry <source> <id|all>");
+                    return;
+                }
+                String source = args[2].toLowerCase();
+                Long id = null;
+                if (!args[3].equalsIgnoreCase("all")) {
+                    try {
+                        id = Long.parseLong(args[3]);
+                    } catch (NumberFormatException e) {
+                        sender.sendMessage("§cid должен быть числом или all.");
+                        return;
+                    }
+                }
+                dispatcher.deadLetterRetry(source, id).whenComplete((n, err) -> reply(sender, () ->
+                        sender.sendMessage(err != null ? "§cОшибка: " + err.getMessage()
+                                : "§aВозвращено в выдачу: " + n)));
+            }
+            default -> sender.sendMessage("§cНеизвестная подкоманда.");
+        }
+    }
+
+    private void handleDailyStats(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("primerewards.stats")) {
+            sender.sendMessage("§cНедостаточно прав.");
+            return;
+        }
+        if (!dispatcher.rollupEnabled()) {
+            sender.sendMessage("§cСуточная сводка выключена (rollup.enabled).");
+            return;
+        }
+        int days = 7;
+        if (args.length > 2) {
+            try {
+                days = Math.max(1, Math.min(Integer.parseInt(args[2]), 90));
+            } catch (NumberFormatException e) {
+                sender.sendMessage("§cdays должен быть числом.");
+                return;
+            }
+        }
+        dispatcher.dailyStats(days).whenComplete((lines, err) -> reply(sender, () -> {
+            if (err != null) {
+                sender.sendMessage("§cОшибка: " + err.getMessage());
+            } else if (lines.isEmpty()) {
+                sender.sendMessage("§7Нет данных за период.");
+            } else {
+                lines.forEach(sender::sendMessage);
+            }
+        }));
+    }
+
+    /** ответ на команду из фонового потока — на потоке сервера */
+    private void reply(CommandSender sender, Runnable r) {
+        executor.backend().runGlobal(r);
+    }
 }
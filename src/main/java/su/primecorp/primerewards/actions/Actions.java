@@ -0,0 +1,79 @@
+package su.primecorp.primerewards.actions;
+
+import su.primecorp.primerewards.util.TemplateEngine;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** Разбор элементов списка tiers.&lt;tier&gt;: строка — консольная команда, map с type — типизированное действие */
+public final class Actions {
+
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+)([smhdw])");
+
+    private Actions() {}
+
+    public static RewardAction parse(Object entry) {
+        if (entry instanceof String s) return new CommandAction(s);
+        if (!(entry instanceof Map<?, ?> m)) {
+            throw new IllegalArgumentException("Unsupported action entry: " + entry);
+        }
+        String type = str(m, "type");
+        if (type == null) throw new IllegalArgumentException("Action without type: " + m);
+        String fallback = str(m, "fallback");
+        return switch (type.toLowerCase(Locale.ROOT)) {
+            case "command" -> new CommandAction(required(m, "command"));
+            case "vault_deposit" -> new VaultDepositAction(required(m, "amount"), fallback);
+            case "playerpoints_give" -> new PlayerPointsAction(required(m, "amount"), fallback);
+            case "luckperms" -> new LuckPermsAction(str(m, "group"), str(m, "permission"),
+                    str(m, "duration"), str(m, "merge"), fallback);
+            default -> throw new IllegalArgumentException("Unknown action type: " + type);
+        };
+    }
+
+    static double parseAmount(String template, Function<String, String> placeholders) {
+        String v = TemplateEngine.apply(template, placeholders).trim();
+        try {
+            return Double.parseDouble(v);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad amount '" + v + "' from template " + template);
+        }
+    }
+
+    /** формат как у LuckPerms: 30d, 12h, 1w2d, 90m */
+    static Duration parseDuration(String s) {
+        Matcher m = DURATION_PART.matcher(s.trim().toLowerCase(Locale.ROOT));
+        Duration d = Duration.ZERO;
+        int end = 0;
+        while (m.find()) {
+            if (m.start() != end) break;
+            long n = Long.parseLong(m.group(1));
+            d = d.plus(switch (m.group(2)) {
+                case "s" -> Duration.ofSeconds(n);
+                case "m" -> Duration.ofMinutes(n);
+                case "h" -> Duration.ofHours(n);
+                case "d" -> Duration.ofDays(n);
+                default -> Duration.ofDays(n * 7);
+            });
+            end = m.end();
+        }
+        if (end == 0 || end != s.trim().length()) {
+            throw new IllegalArgumentException("Bad duration: " + s);
+        }
+        return d;
+    }
+
+    private static String str(Map<?, ?> m, String key) {
+        Object v = m.get(key);
+        return v == null ? null : String.valueOf(v);
+    }
+
+    private static String required(Map<?, ?> m, String key) {
+        String v = str(m, key);
+        if (v == null || v.isBlank()) throw new IllegalArgumentException("Action " + m + " needs '" + key + "'");
+        return v;
+    }
+}
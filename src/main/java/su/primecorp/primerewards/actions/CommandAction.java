@@ -0,0 +1,31 @@
+package su.primecorp.primerewards.actions;
+
+import su.primecorp.primerewards.core.RewardItem;
+
+import java.util.UUID;
+import java.util.function.Function;
+
+/** Обычная консольная команда из tiers — всегда через главный поток */
+public final class CommandAction implements RewardAction {
+
+    private final String command;
+
+    public CommandAction(String command) {
+        this.command = command;
+    }
+
+    @Override
+    public boolean tryRunNative(RewardItem item, UUID uuid, Function<String, String> placeholders) {
+        return false;
+    }
+
+    @Override
+    public String fallbackCommand() {
+        return command;
+    }
+
+    @Override
+    public String toString() {
+        return command;
+    }
+}
@@ -0,0 +1,105 @@
+package su.primecorp.primerewards.actions;
+
+import net.luckperms.api.LuckPerms;
+import net.luckperms.api.LuckPermsProvider;
+import net.luckperms.api.model.data.DataMutateResult;
+import net.luckperms.api.model.data.TemporaryNodeMergeStrategy;
+import net.luckperms.api.node.Node;
+import net.luckperms.api.node.types.InheritanceNode;
+import net.luckperms.api.node.types.PermissionNode;
+import org.bukkit.Bukkit;
+import su.primecorp.primerewards.core.RewardItem;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * {type: luckperms, group: donor_gold, duration: 90d} или {type: luckperms, permission: "x.y", duration: 7d}.
+ * Без duration — постоянный узел. merge: none|accumulate|replace — как модификатор у lp ... addtemp/settemp.
+ */
+public final class LuckPermsAction implements RewardAction {
+
+    private static final long API_TIMEOUT_SECONDS = 10;
+
+    private final String group;
+    private final String permission;
+    private final Duration duration;
+    private final String merge;
+    private final String fallback;
+
+    public LuckPermsAction(String group, String permission, String duration, String merge, String fallback) {
+        if ((group == null) == (permission == null)) {
+            throw new IllegalArgumentException("luckperms action needs exactly one of group/permission");
+        }
+        this.group = group;
+        this.permission = permission;
+        this.duration = duration == null ? null : Actions.parseDuration(duration);
+        this.merge = merge == null ? "none" : merge.toLowerCase();
+        this.fallback = fallback != null ? fallback : defaultCommand(group, permission, duration, this.merge);
+    }
+
+    private static String defaultCommand(String group, String permission, String duration, String merge) {
+        String mod = "none".equals(merge) ? "" : " " + merge;
+        if (group != null) {
+            return duration == null
+                    ? "lp user ${nickname} parent add " + group
+                    : "lp user ${nickname} parent addtemp " + group + " " + duration + mod;
+        }
+        return duration == null
+                ? "lp user ${nickname} permission set " + permission + " true"
+                : "lp user ${nickname} permission settemp " + permission + " true " + duration + mod;
+    }
+
+    @Override
+    public boolean tryRunNative(RewardItem item, UUID uuid, Function<String, String> placeholders) throws Exception {
+        if (!Bukkit.getPluginManager().isPluginEnabled("LuckPerms")) return false;
+        return Api.apply(this, item.nickname, uuid);
+    }
+
+    @Override
+    public String fallbackCommand() {
+        return fallback;
+    }
+
+    @Override
+    public String toString() {
+        return "luckperms(" + (group != null ? "group=" + group : "permission=" + permission)
+                + (duration != null ? ", " + duration : "") + ")";
+    }
+
+    /** классы LuckPerms загружаются только если плагин включён; API LuckPerms потокобезопасно */
+    private static final class Api {
+        /** uuid == null — ник не разрешён заранее, ищем через хранилище LuckPerms */
+        static boolean apply(LuckPermsAction a, String nickname, UUID uuid) throws Exception {
+            LuckPerms lp = LuckPermsProvider.get();
+            UUID id = uuid != null ? uuid
+                    : lp.getUserManager().lookupUniqueId(nickname).get(API_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (id == null) return false;
+
+            Node node = a.group != null
+                    ? expiry(InheritanceNode.builder(a.group), a.duration).build()
+                    : expiry(PermissionNode.builder(a.permission).value(true), a.duration).build();
+            TemporaryNodeMergeStrategy strategy = switch (a.merge) {
+                case "accumulate" -> TemporaryNodeMergeStrategy.ADD_NEW_DURATION_TO_EXISTING;
+                case "replace" -> TemporaryNodeMergeStrategy.REPLACE_EXISTING_IF_DURATION_LONGER;
+                default -> TemporaryNodeMergeStrategy.NONE;
+            };
+            lp.getUserManager().modifyUser(id, user -> {
+                DataMutateResult r = a.duration == null
+                        ? user.data().add(node)
+                        : user.data().add(node, strategy).getResult();
+                // как и у консольной команды, «уже есть» — не ошибка
+                if (!r.wasSuccessful() && r != DataMutateResult.FAIL_ALREADY_HAS) {
+                    throw new IllegalStateException("LuckPerms: " + r);
+                }
+            }).get(API_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return true;
+        }
+
+        private static <B extends net.luckperms.api.node.NodeBuilder<?, B>> B expiry(B builder, Duration d) {
+            return d == null ? builder : builder.expiry(d);
+        }
+    }
+}
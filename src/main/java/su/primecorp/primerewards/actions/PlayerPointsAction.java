@@ -0,0 +1,53 @@
+package su.primecorp.primerewards.actions;
+
+import org.black_ixx.playerpoints.PlayerPoints;
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import su.primecorp.primerewards.core.RewardItem;
+
+import java.util.UUID;
+import java.util.function.Function;
+
+/** {type: playerpoints_give, amount: "10"} — начисление через PlayerPoints API */
+public final class PlayerPointsAction implements RewardAction {
+
+    private final String amount;
+    private final String fallback;
+
+    public PlayerPointsAction(String amount, String fallback) {
+        this.amount = amount;
+        this.fallback = fallback != null ? fallback : "playerpoints give ${nickname} " + amount;
+    }
+
+    @Override
+    public boolean tryRunNative(RewardItem item, UUID uuid, Function<String, String> placeholders) throws Exception {
+        if (!Bukkit.getPluginManager().isPluginEnabled("PlayerPoints")) return false;
+        UUID id = uuid;
+        if (id == null) {
+            OfflinePlayer player = Bukkit.getOfflinePlayerIfCached(item.nickname);
+            if (player == null) return false;
+            id = player.getUniqueId();
+        }
+        int value = (int) Math.round(Actions.parseAmount(amount, placeholders));
+        if (!Api.give(id, value)) {
+            throw new IllegalStateException("PlayerPoints give failed for " + item.nickname);
+        }
+        return true;
+    }
+
+    @Override
+    public String fallbackCommand() {
+        return fallback;
+    }
+
+    @Override
+    public String toString() {
+        return "playerpoints_give(" + amount + ")";
+    }
+
+    private static final class Api {
+        static boolean give(UUID id, int value) {
+            return PlayerPoints.getInstance().getAPI().give(id, value);
+        }
+    }
+}
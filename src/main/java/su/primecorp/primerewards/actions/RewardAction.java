@@ -0,0 +1,23 @@
+package su.primecorp.primerewards.actions;
+
+import su.primecorp.primerewards.core.RewardItem;
+
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Одно действие тарифа. Типизированные действия пробуют выполниться через API сервиса вне главного потока;
+ * если сервиса нет (или игрок не найден в кэше), исполнитель запускает fallbackCommand() от консоли.
+ */
+public interface RewardAction {
+
+    /**
+     * @param uuid         UUID игрока из стадии разрешения ников; null — не разрешён (действие ищет игрока само)
+     * @param placeholders значения ${...} для шаблонов
+     * @return false — нативно выполнить нельзя, нужна консольная команда
+     */
+    boolean tryRunNative(RewardItem item, UUID uuid, Function<String, String> placeholders) throws Exception;
+
+    /** шаблон консольной команды; null — запасного варианта нет */
+    String fallbackCommand();
+}
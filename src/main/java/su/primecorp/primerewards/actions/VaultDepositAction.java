@@ -0,0 +1,56 @@
+package su.primecorp.primerewards.actions;
+
+import net.milkbowl.vault.economy.Economy;
+import net.milkbowl.vault.economy.EconomyResponse;
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.plugin.RegisteredServiceProvider;
+import su.primecorp.primerewards.core.RewardItem;
+
+import java.util.UUID;
+import java.util.function.Function;
+
+/** {type: vault_deposit, amount: "100"} — зачисление через Vault Economy */
+public final class VaultDepositAction implements RewardAction {
+
+    private final String amount;
+    private final String fallback;
+
+    public VaultDepositAction(String amount, String fallback) {
+        this.amount = amount;
+        this.fallback = fallback != null ? fallback : "eco give ${nickname} " + amount;
+    }
+
+    @Override
+    public boolean tryRunNative(RewardItem item, UUID uuid, Function<String, String> placeholders) throws Exception {
+        if (!Bukkit.getPluginManager().isPluginEnabled("Vault")) return false;
+        // по готовому UUID — без повторного поиска по кэшу профилей
+        OfflinePlayer player = uuid != null ? Bukkit.getOfflinePlayer(uuid) : Bukkit.getOfflinePlayerIfCached(item.nickname);
+        if (player == null) return false;
+        double value = Actions.parseAmount(amount, placeholders);
+        return Api.deposit(player, value);
+    }
+
+    @Override
+    public String fallbackCommand() {
+        return fallback;
+    }
+
+    @Override
+    public String toString() {
+        return "vault_deposit(" + amount + ")";
+    }
+
+    /** классы Vault загружаются только если плагин включён */
+    private static final class Api {
+        static boolean deposit(OfflinePlayer player, double value) {
+            RegisteredServiceProvider<Economy> rsp = Bukkit.getServicesManager().getRegistration(Economy.class);
+            if (rsp == null) return false;
+            EconomyResponse r = rsp.getProvider().depositPlayer(player, value);
+            if (!r.transactionSuccess()) {
+                throw new IllegalStateException("Vault deposit failed: " + r.errorMessage);
+            }
+            return true;
+        }
+    }
+}
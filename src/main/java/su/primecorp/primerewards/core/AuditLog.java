@@ -0,0 +1,230 @@
+package su.primecorp.primerewards.core;
+
+import su.primecorp.primerewards.util.SafeConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Аудит выдач: воркер только кладёт запись в ограниченный буфер (без блокировок и форматирования),
+ * отдельный поток пачками пишет JSONL через FileChannel в audit/audit-YYYY-MM-DD[.N].jsonl.
+ * При переполнении буфера записи отбрасываются и считаются — выдачу аудит не тормозит никогда.
+ */
+final class AuditLog {
+
+    record Entry(long ts, String source, long id, String orderId, String tier, String nickname,
+                 long queueWaitMs, long execMs, long lagMs, boolean ok, String reason) {}
+
+    private static final int WRITE_BATCH = 512;
+
+    /** пробуждает писателя при остановке; в файл не пишется */
+    private static final Entry STOP = new Entry(0L, null, -1L, null, null, null, 0L, 0L, 0L, false, null);
+
+    private final File dir;
+    private final Logger log;
+    private final BlockingQueue<Entry> buffer;
+    private final AtomicLong dropped = new AtomicLong();
+    private final long maxFileBytes;
+    private final int keepDays;
+    private final Thread writer;
+
+    private volatile boolean running = true;
+
+    private final ByteBuffer out = ByteBuffer.allocateDirect(64 * 1024);
+    private final StringBuilder line = new StringBuilder(256);
+    private FileChannel channel;
+    private LocalDate channelDay;
+    private int channelPart;
+
+    AuditLog(File dataFolder, SafeConfig cfg, Logger log) {
+        this.dir = new File(dataFolder, "audit");
+        this.log = log;
+        this.buffer = new ArrayBlockingQueue<>(Math.max(64, cfg.getInt("audit.bufferSize", 8192)));
+        this.maxFileBytes = cfg.getLong("audit.maxFileBytes", 64L * 1024 * 1024);
+        this.keepDays = cfg.getInt("audit.keepDays", 30);
+        this.writer = new Thread(this::writeLoop, "PrimeRewards-Audit");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /** неблокирующая запись; false — буфер полон, запись потеряна */
+    boolean record(Entry e) {
+        if (buffer.offer(e)) return true;
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Дописать остаток буфера и закрыть файл. Писателя не прерываем: FileChannel прерываемый,
+     * и interrupt посреди записи закрыл бы канал и потерял последнюю пачку. interrupt — только если не уложился.
+     */
+    void close() {
+        running = false;
+        buffer.offer(STOP); // буфер полон — писатель и так не спит
+        try {
+            writer.join(10_000);
+            if (writer.isAlive()) {
+                log.warning("Audit writer did not finish in time, " + buffer.size() + " entries may be lost");
+                writer.interrupt();
+                writer.join(1000);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>(WRITE_BATCH);
+        try {
+            while (running || !buffer.isEmpty()) {
+                try {
+                    Entry first = buffer.poll(1, TimeUnit.SECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+                } catch (InterruptedException ie) {
+                    if (running) continue;
+                }
+                buffer.drainTo(batch, WRITE_BATCH - batch.size());
+                batch.removeIf(e -> e == STOP);
+                if (!batch.isEmpty()) writeBatch(batch);
+                batch.clear();
+            }
+        } catch (Throwable t) {
+            log.log(Level.WARNING, "Audit writer stopped", t);
+        } finally {
+            closeChannel();
+        }
+    }
+
+    private void writeBatch(List<Entry> batch) {
+        try {
+            FileChannel ch = channelFor(LocalDate.now());
+            for (Entry e : batch) {
+                byte[] bytes = toJson(e).getBytes(StandardCharsets.UTF_8);
+                if (out.remaining() < bytes.length) flush(ch);
+                if (bytes.length > out.capacity()) {
+                    ch.write(ByteBuffer.wrap(bytes));
+                } else {
+                    out.put(bytes);
+                }
+            }
+            flush(ch);
+        } catch (IOException ex) {
+            out.clear();
+            dropped.addAndGet(batch.size());
+            log.warning("Audit write failed: " + ex.getMessage());
+            closeChannel();
+        }
+    }
+
+    private void flush(FileChannel ch) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) ch.write(out);
+        out.clear();
+    }
+
+    private FileChannel channelFor(LocalDate day) throws IOException {
+        if (channel != null && day.equals(channelDay) && channel.size() < maxFileBytes) return channel;
+        closeChannel();
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        if (!day.equals(channelDay)) {
+            channelDay = day;
+            channelPart = 0;
+            purgeOld(day);
+        }
+        File f;
+        do {
+            f = new File(dir, "audit-" + day + (channelPart == 0 ? "" : "." + channelPart) + ".jsonl");
+            if (f.length() < maxFileBytes) break;
+            channelPart++;
+        } while (true);
+        channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        return channel;
+    }
+
+    private void purgeOld(LocalDate today) {
+        if (keepDays <= 0) return;
+        String border = "audit-" + today.minusDays(keepDays);
+        File[] files = dir.listFiles((d, name) -> name.startsWith("audit-") && name.endsWith(".jsonl"));
+        if (files == null) return;
+        for (File f : files) {
+            // имена сортируются как даты: audit-YYYY-MM-DD...
+            if (f.getName().compareTo(border) < 0 && !f.delete()) {
+                log.fine("Cannot delete old audit file " + f.getName());
+            }
+        }
+    }
+
+    private void closeChannel() {
+        if (channel == null) return;
+        try { channel.close(); } catch (IOException ignored) {}
+        channel = null;
+    }
+
+    private String toJson(Entry e) {
+        StringBuilder sb = line;
+        sb.setLength(0);
+        sb.append("{\"ts\":\"").append(Instant.ofEpochMilli(e.ts()).atZone(ZoneId.systemDefault()).toOffsetDateTime())
+                .append("\",\"source\":");
+        str(sb, e.source());
+        sb.append(",\"id\":").append(e.id()).append(",\"order_id\":");
+        str(sb, e.orderId());
+        sb.append(",\"tier\":");
+        str(sb, e.tier());
+        sb.append(",\"nick\":");
+        str(sb, e.nickname());
+        sb.append(",\"queue_ms\":").append(e.queueWaitMs())
+                .append(",\"exec_ms\":").append(e.execMs())
+                .append(",\"lag_ms\":").append(e.lagMs())
+                .append(",\"outcome\":\"").append(e.ok() ? "ok" : "fail").append('"');
+        if (e.reason() != null) {
+            sb.append(",\"reason\":");
+            str(sb, e.reason());
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static void str(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,113 @@
+package su.primecorp.primerewards.core;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Режим догонки большого бэклога: короткими страницами (обычный SELECT ... LIMIT pageSize), каждая страница
+ * раздаётся воркерам блокирующе, и следующая читается после отметки всей предыдущей. Соединение занято только
+ * на время чтения страницы — никакого долгоживущего курсора, который упирался бы в net_write_timeout
+ * при раздаче в темпе rate limit. Отмеченные строки выпадают из readyWhere, поэтому повтор того же SELECT
+ * и есть переход на следующую страницу, с сохранением ORDER BY источника.
+ */
+final class BacklogDrainer {
+
+    interface Delivery {
+        /**
+         * Блокирующая передача элемента воркерам. false — элемент пропущен (например, backoff-гейт).
+         * onDone вызывается после завершения выдачи (только если вернули true).
+         */
+        boolean submit(RewardSource src, RewardItem item, Runnable onDone) throws InterruptedException;
+    }
+
+    private final Logger log;
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private final Set<String> active = ConcurrentHashMap.newKeySet();
+    private final ExecutorService threads = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "PrimeRewards-Drain");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile int pageSize;
+
+    BacklogDrainer(Logger log) {
+        this.log = log;
+    }
+
+    void configure(int pageSize) {
+        this.pageSize = Math.max(1, pageSize);
+    }
+
+    boolean isDraining(RewardSource src) {
+        return active.contains(src.name());
+    }
+
+    /**
+     * Запустить догонку источника. Страницы читаются, пока со страницы отдано воркерам не меньше exitBelow строк,
+     * затем источник возвращается к обычному опросу.
+     *
+     * @return false — догонка источника уже идёт
+     */
+    boolean start(RewardSource src, int exitBelow, Delivery delivery) {
+        if (!running.get()) return false;
+        if (!active.add(src.name())) return false;
+        log.info("Backlog detected for " + src.name() + ", switching to paged drain");
+        try {
+            threads.execute(() -> {
+                long total = 0;
+                try {
+                    while (running.get()) {
+                        int submitted = page(src, delivery);
+                        total += submitted;
+                        if (submitted < exitBelow) break;
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    log.log(Level.WARNING, "Backlog drain failed for " + src.name(), e);
+                } finally {
+                    active.remove(src.name());
+                    log.info("Backlog drain finished for " + src.name() + ": submitted=" + total
+                            + ", back to polling");
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            active.remove(src.name());
+            return false;
+        }
+        return true;
+    }
+
+    void stop() {
+        running.set(false);
+        threads.shutdownNow();
+    }
+
+    /** одна страница: соединение возвращается в пул до раздачи; результат — число строк, отданных воркерам */
+    private int page(RewardSource src, Delivery delivery) throws Exception {
+        int limit = pageSize;
+        DeliveryEvents.Fetch ev = new DeliveryEvents.Fetch();
+        ev.begin();
+        List<RewardItem> rows = src.fetchPending(limit);
+        DeliveryEvents.fetched(ev, src.name(), limit, rows.size(), true);
+        Phaser inFlight = new Phaser(1);
+        int submitted = 0;
+        try {
+            for (RewardItem item : rows) {
+                if (!running.get()) break;
+                inFlight.register();
+                if (delivery.submit(src, item, inFlight::arriveAndDeregister)) submitted++;
+                else inFlight.arriveAndDeregister();
+            }
+        } finally {
+            // ждём выдачи всего отданного, иначе следующая страница перечитает ещё не отмеченные строки
+            inFlight.arriveAndAwaitAdvance();
+        }
+        return submitted;
+    }
+}
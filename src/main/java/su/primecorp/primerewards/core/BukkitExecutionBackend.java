@@ -0,0 +1,38 @@
+package su.primecorp.primerewards.core;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/** Paper/Spigot: всё, что трогает сервер, — на единственном главном потоке */
+final class BukkitExecutionBackend implements ExecutionBackend {
+
+    private final Plugin plugin;
+
+    BukkitExecutionBackend(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public <T> CompletableFuture<T> call(Callable<T> task) {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        if (Bukkit.isPrimaryThread()) {
+            ExecutionBackend.complete(f, task);
+        } else {
+            Bukkit.getScheduler().runTask(plugin, () -> ExecutionBackend.complete(f, task));
+        }
+        return f;
+    }
+
+    @Override
+    public void runGlobal(Runnable task) {
+        if (plugin.isEnabled()) Bukkit.getScheduler().runTask(plugin, task);
+    }
+
+    @Override
+    public String name() {
+        return "bukkit";
+    }
+}
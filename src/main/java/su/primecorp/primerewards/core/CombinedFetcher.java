@@ -0,0 +1,60 @@
+package su.primecorp.primerewards.core;
+
+import su.primecorp.primerewards.mysql.DbPool;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * Одна выборка на тик по всем источникам: UNION ALL из pendingSelectSql() каждого источника
+ * с колонкой-дискриминатором src_idx. Один round-trip и одно соединение из пула вместо N.
+ */
+public final class CombinedFetcher {
+
+    private final DbPool db;
+
+    public CombinedFetcher(DbPool db) {
+        this.db = db;
+    }
+
+    /**
+     * В результате есть ключ для каждого источника с положительным лимитом (возможно, с пустым списком).
+     *
+     * @param limits LIMIT для каждого источника; источники с лимитом 0 пропускаются
+     */
+    public Map<RewardSource, List<RewardItem>> fetch(List<RewardSource> sources, ToIntFunction<RewardSource> limits)
+            throws Exception {
+        List<RewardSource> parts = new ArrayList<>();
+        List<Integer> partLimits = new ArrayList<>();
+        StringBuilder sql = new StringBuilder();
+        for (RewardSource src : sources) {
+            String select = src.pendingSelectSql();
+            int limit = limits.applyAsInt(src);
+            if (limit <= 0) continue;
+            if (!parts.isEmpty()) sql.append(" UNION ALL ");
+            sql.append("SELECT ").append(parts.size()).append(" AS src_idx, q.* FROM (")
+                    .append(select).append(" LIMIT ?) q");
+            parts.add(src);
+            partLimits.add(limit);
+        }
+
+        Map<RewardSource, List<RewardItem>> out = new LinkedHashMap<>();
+        for (RewardSource src : parts) out.put(src, new ArrayList<>());
+        if (parts.isEmpty()) return out;
+
+        try (Connection c = db.getConnection();
+             PreparedStatement ps = c.prepareStatement(sql.toString())) {
+            for (int i = 0; i < parts.size(); i++) ps.setInt(i + 1, partLimits.get(i));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    RewardSource src = parts.get(rs.getInt("src_idx"));
+                    out.get(src).add(src.mapRow(rs));
+                }
+            }
+        }
+        return out;
+    }
+}
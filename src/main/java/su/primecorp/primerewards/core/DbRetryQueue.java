@@ -0,0 +1,174 @@
+package su.primecorp.primerewards.core;
+
+import su.primecorp.primerewards.mysql.DbPool;
+
+import java.sql.Connection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Ретраи транзакционных операций с БД без сна в воркере: после ошибки соединение возвращается в пул,
+ * операция паркуется и перезапускается по таймеру на новом соединении.
+ * Воркер и слот параллелизма освобождаются сразу — короткий сбой MySQL не замораживает конвейер.
+ */
+final class DbRetryQueue {
+
+    interface TxOp {
+        /** выполняется в транзакции; true — commit, false — rollback */
+        boolean run(Connection tx) throws Exception;
+    }
+
+    interface Callback {
+        /** error != null — попытки исчерпаны */
+        void done(boolean result, Exception error);
+    }
+
+    private final DbPool db;
+    private final Logger log;
+    private final ScheduledExecutorService timer;
+    private final Executor runner;
+    private final IntSupplier maxRetries;
+    private final LongSupplier backoffMs;
+
+    private final ConcurrentHashMap<String, Parked> parked = new ConcurrentHashMap<>();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong gaveUp = new AtomicLong();
+
+    DbRetryQueue(DbPool db, Logger log, ScheduledExecutorService timer, Executor runner,
+                 IntSupplier maxRetries, LongSupplier backoffMs) {
+        this.db = db;
+        this.log = log;
+        this.timer = timer;
+        this.runner = runner;
+        this.maxRetries = maxRetries;
+        this.backoffMs = backoffMs;
+    }
+
+    /** первая попытка — сразу в вызывающем потоке; key — для отслеживания (src#id) */
+    void submit(String key, TxOp op, Callback cb) {
+        attempt(new Parked(key, op, cb));
+    }
+
+    /** есть ли по ключу операция, ожидающая повтора */
+    boolean isParked(String key) {
+        return parked.containsKey(key);
+    }
+
+    /**
+     * При остановке (таймер уже остановлен): повторяем всё, что ждёт повтора, в этом потоке до дедлайна —
+     * включая операции, которые колбэки успели добавить во время сброса. Что записать не удалось,
+     * перечисляется в логе: иначе отметка пропала бы молча и строка выдалась бы повторно после рестарта.
+     */
+    void flushNow(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!parked.isEmpty() && System.currentTimeMillis() < deadline) {
+            for (Parked p : parked.values()) {
+                if (parked.remove(p.key, p)) attempt(p);
+            }
+            if (parked.isEmpty()) break;
+            long pause = Math.min(backoffMs.getAsLong(), deadline - System.currentTimeMillis());
+            if (pause <= 0) break;
+            try {
+                Thread.sleep(pause);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (parked.isEmpty()) return;
+        gaveUp.addAndGet(parked.size());
+        log.severe("DB marks not written at shutdown (" + parked.size() + "), rows may be delivered again: "
+                + String.join(", ", parked.keySet()));
+        parked.clear();
+    }
+
+    String dumpStats() {
+        return String.format("§7DbRetry:§f parked=%d retried=%d gaveUp=%d", parked.size(), retried.get(), gaveUp.get());
+    }
+
+    private void attempt(Parked p) {
+        boolean result;
+        DeliveryEvents.DbMark ev = new DeliveryEvents.DbMark();
+        ev.begin();
+        try {
+            result = runTx(p.op);
+            commitMark(ev, p, result, null);
+        } catch (Exception e) {
+            commitMark(ev, p, false, e);
+            p.attempts++;
+            if (p.attempts >= maxRetries.getAsInt()) {
+                gaveUp.incrementAndGet();
+                DeliveryEvents.retry(p.key, "db-give-up", p.attempts, 0L, e.getMessage());
+                p.cb.done(false, e);
+                return;
+            }
+            park(p, e);
+            return;
+        }
+        p.cb.done(result, null);
+    }
+
+    private void park(Parked p, Exception cause) {
+        long delay = backoffMs.getAsLong() * p.attempts;
+        parked.put(p.key, p);
+        DeliveryEvents.retry(p.key, "db-park", p.attempts, delay, cause.getMessage());
+        log.fine("DB op parked key=" + p.key + " attempt=" + p.attempts + " retryIn=" + delay + "ms: " + cause.getMessage());
+        try {
+            timer.schedule(() -> {
+                if (!parked.remove(p.key, p)) return; // уже выполнено в flushNow
+                retried.incrementAndGet();
+                try {
+                    runner.execute(() -> attempt(p));
+                } catch (RejectedExecutionException e) {
+                    attempt(p);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // таймер остановлен: операцию подберёт цикл flushNow()
+        }
+    }
+
+    private static void commitMark(DeliveryEvents.DbMark ev, Parked p, boolean committed, Exception error) {
+        ev.end();
+        if (!ev.shouldCommit()) return;
+        ev.key = p.key;
+        ev.attempt = p.attempts + 1;
+        ev.committed = committed;
+        ev.error = error == null ? null : error.getMessage();
+        ev.commit();
+    }
+
+    private boolean runTx(TxOp op) throws Exception {
+        try (Connection tx = db.getConnection()) {
+            tx.setAutoCommit(false);
+            try {
+                boolean ok = op.run(tx);
+                if (ok) tx.commit(); else tx.rollback();
+                return ok;
+            } catch (Exception e) {
+                try { tx.rollback(); } catch (Exception ignore) {}
+                throw e;
+            }
+        }
+    }
+
+    private static final class Parked {
+        final String key;
+        final TxOp op;
+        final Callback cb;
+        int attempts;
+
+        Parked(String key, TxOp op, Callback cb) {
+            this.key = key;
+            this.op = op;
+            this.cb = cb;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package su.primecorp.primerewards.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * События JDK Flight Recorder по стадиям выдачи. По умолчанию выключены (почти нулевая цена);
+ * включаются профилем primerewards.jfc из папки плагина. Поля заполняются только под shouldCommit().
+ */
+final class DeliveryEvents {
+
+    private DeliveryEvents() {}
+
+    @Name("primerewards.Fetch")
+    @Label("Source Fetch")
+    @Category({"PrimeRewards", "Fetch"})
+    @Description("SELECT ожидающих строк: отдельный источник, объединённый UNION ALL или страница догонки")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Fetch extends Event {
+        @Label("Source") String source;
+        @Label("Limit") int limit;
+        @Label("Rows") int rows;
+        @Label("Drain Page") boolean drain;
+    }
+
+    @Name("primerewards.QueueWait")
+    @Label("Delivery Queue Wait")
+    @Category({"PrimeRewards", "Delivery"})
+    @Description("Время от приёма строки в буфер (или догонкой) до начала выдачи: буфер, слот ника, permit")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class QueueWait extends Event {
+        @Label("Source") String source;
+        @Label("Item Id") long itemId;
+        @Label("Waited") @Timespan(Timespan.MILLISECONDS) long waited;
+    }
+
+    @Name("primerewards.ServerHop")
+    @Label("Server Thread Hop")
+    @Category({"PrimeRewards", "Delivery"})
+    @Description("Задача на потоке сервера: ожидание слота в тике против собственного выполнения")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class ServerHop extends Event {
+        @Label("Backend") String backend;
+        @Label("Wait") @Timespan(Timespan.NANOSECONDS) long waitNanos;
+        @Label("Run") @Timespan(Timespan.NANOSECONDS) long runNanos;
+    }
+
+    @Name("primerewards.Action")
+    @Label("Reward Action")
+    @Category({"PrimeRewards", "Delivery"})
+    @Description("Одно действие tier: через API сервиса (native) или консольная команда")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Action extends Event {
+        @Label("Source") String source;
+        @Label("Item Id") long itemId;
+        @Label("Action") String action;
+        @Label("Native") boolean nativeCall;
+        @Label("Succeeded") boolean ok;
+    }
+
+    @Name("primerewards.DbMark")
+    @Label("DB Mark Transaction")
+    @Category({"PrimeRewards", "Database"})
+    @Description("Транзакция отметки (markDelivered/markFailed/карантин) вместе с commit")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class DbMark extends Event {
+        @Label("Key") String key;
+        @Label("Attempt") int attempt;
+        @Label("Committed") boolean committed;
+        @Label("Error") String error;
+    }
+
+    @Name("primerewards.RetryDecision")
+    @Label("Retry Decision")
+    @Category({"PrimeRewards", "Retry"})
+    @Description("Решение после ошибки: backoff выдачи, карантин, парковка или отказ отметки в БД")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class RetryDecision extends Event {
+        @Label("Key") String key;
+        @Label("Decision") String decision;
+        @Label("Attempts") int attempts;
+        @Label("Delay") @Timespan(Timespan.MILLISECONDS) long delay;
+        @Label("Reason") String reason;
+    }
+
+    static void fetched(Fetch ev, String source, int limit, int rows, boolean drain) {
+        ev.end();
+        if (!ev.shouldCommit()) return;
+        ev.source = source;
+        ev.limit = limit;
+        ev.rows = rows;
+        ev.drain = drain;
+        ev.commit();
+    }
+
+    static void retry(String key, String decision, int attempts, long delayMs, String reason) {
+        RetryDecision e = new RetryDecision();
+        if (!e.shouldCommit()) return;
+        e.key = key;
+        e.decision = decision;
+        e.attempts = attempts;
+        e.delay = delayMs;
+        e.reason = reason;
+        e.commit();
+    }
+}
@@ -2,12 +2,19 @@ package su.primecorp.primerewards.core;
 
 import org.bukkit.plugin.Plugin;
 import su.primecorp.primerewards.mysql.DbPool;
+import su.primecorp.primerewards.mysql.DeadLetterStore;
+import su.primecorp.primerewards.mysql.DeliveryRollupStore;
 import su.primecorp.primerewards.util.RateLimiter;
 import su.primecorp.primerewards.util.SafeConfig;
 
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
@@ -19,40 +26,95 @@ public final class Dispatcher {
     private final Plugin plugin;
     private final RewardExecutor executor;
     private final List<RewardSource> sources;
+    private final List<SourcePipeline> pipelines;
     private final DbPool db;
     private final Logger log;
+    private final CombinedFetcher combinedFetcher;
+    private final BacklogDrainer drainer;
+    private final LagMonitor lagMonitor;
+    private final DbRetryQueue dbRetries;
+    private final DeadLetterStore deadLetters; // null — карантин выключен
+    private final DeliveryRollupStore rollup;  // null — суточная свёртка выключена
+    private final AuditLog audit; // null — аудит выключен, подробности пишем в консоль как раньше
 
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
         Thread t = new Thread(r, "PrimeRewards-Dispatcher");
         t.setDaemon(true);
         return t;
     });
+    private final ExecutorService pumpThread = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "PrimeRewards-Pump");
+        t.setDaemon(true);
+        return t;
+    });
     private ExecutorService workers;
     private Semaphore parallelism;
     private RateLimiter rateLimiter;
 
     private volatile long intervalMs;
+    private volatile long sloSampleIntervalMs;
+    private final long auditSummaryIntervalMs;
+    private final long connectRetryMaxMs;
+    private final long rollupFlushIntervalMs;
+    private long connectDelayMs; // только поток диспетчера
     private volatile int batchSize;
+    private volatile int bufferSize;
+    private volatile int lowWater;
+    private volatile boolean perPlayerOrdering;
+    private volatile boolean holdOnFailure;
+    private volatile boolean combinedFetch;
+    private volatile boolean drainEnabled;
     private volatile int dbMaxRetries;
     private volatile long dbRetryBackoffMs;
     private volatile long backoffBaseMs;
     private volatile long backoffMaxMs;
     private volatile long backoffJitterMs;
+    private volatile int deadLetterMaxAttempts;
+    private volatile boolean rollupReady;
+    private boolean deadLetterWarned; // только поток диспетчера
+    private boolean rollupWarned; // только поток диспетчера
 
     private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicBoolean refillRequested = new AtomicBoolean(false);
+    private final AtomicBoolean pumpRequested = new AtomicBoolean(false);
+    private int pumpCursor; // только поток раздачи
+    private final PlayerLanes lanes = new PlayerLanes();
     private final AtomicLong delivered = new AtomicLong();
     private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+    private final AtomicLong summaryDelivered = new AtomicLong();
+    private final AtomicLong summaryFailed = new AtomicLong();
+    private volatile String lastFailure;
 
     private final ConcurrentHashMap<Long, Long> nextAllowedAtMillis = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> failuresByKey = new ConcurrentHashMap<>();
     private final Random random = new Random();
 
     public Dispatcher(Plugin plugin, SafeConfig cfg, RewardExecutor executor,
-                      List<RewardSource> sources, Logger log, DbPool dbPool) {
+                      List<RewardSource> sources, Logger log, DbPool dbPool, DeadLetterStore deadLetters,
+                      DeliveryRollupStore rollup) {
         this.plugin = plugin;
         this.executor = executor;
         this.sources = sources;
+        List<SourcePipeline> ps = new ArrayList<>(sources.size());
+        for (RewardSource src : sources) ps.add(new SourcePipeline(src));
+        this.pipelines = List.copyOf(ps);
         this.db = dbPool;
+        this.deadLetters = deadLetters;
+        this.rollup = rollup;
         this.log = log;
+        this.combinedFetcher = new CombinedFetcher(dbPool);
+        this.drainer = new BacklogDrainer(log);
+        this.lagMonitor = new LagMonitor(executor.backend(), dbPool, log);
+        this.dbRetries = new DbRetryQueue(dbPool, log, scheduler, r -> workers.execute(r),
+                () -> dbMaxRetries, () -> dbRetryBackoffMs);
+        // параметры аудита применяются только при старте
+        this.audit = cfg.getConfig().getBoolean("audit.enabled", true)
+                ? new AuditLog(plugin.getDataFolder(), cfg, log) : null;
+        this.auditSummaryIntervalMs = cfg.getLong("audit.summaryIntervalMs", 60000L);
+        this.rollupFlushIntervalMs = Math.max(1000L, cfg.getLong("rollup.flushIntervalMs", 10000L));
+        this.connectDelayMs = Math.max(100L, cfg.getLong("mysql.connectRetryBaseMs", 1000L));
+        this.connectRetryMaxMs = Math.max(connectDelayMs, cfg.getLong("mysql.connectRetryMaxMs", 60000L));
         applyConfig(cfg);
     }
 
@@ -64,16 +126,28 @@ public final class Dispatcher {
     private void applyConfig(SafeConfig cfg) {
         this.intervalMs = cfg.getLong("polling.intervalMs", 3000L);
         this.batchSize = cfg.getInt("polling.batchSize", 50);
+        this.combinedFetch = cfg.getConfig().getBoolean("polling.combinedFetch", false);
+        this.bufferSize = cfg.getInt("polling.bufferSize", 0);
+        this.lowWater = cfg.getInt("polling.lowWater", 10);
+        this.perPlayerOrdering = cfg.getConfig().getBoolean("ordering.perPlayer", true);
+        this.holdOnFailure = cfg.getConfig().getBoolean("ordering.holdOnFailure", true);
+        if (!holdOnFailure) lanes.clearBlocks();
         int maxConc = cfg.getInt("polling.maxConcurrentDeliveries", 4);
         this.dbMaxRetries = cfg.getInt("polling.dbMaxRetries", 3);
         this.dbRetryBackoffMs = cfg.getLong("polling.dbRetryBackoffMs", 300L);
         this.backoffBaseMs = cfg.getLong("backoff.baseMs", 2000L);
         this.backoffMaxMs = cfg.getLong("backoff.maxMs", 120000L);
         this.backoffJitterMs = cfg.getLong("backoff.jitterMs", 500L);
+        this.deadLetterMaxAttempts = cfg.getInt("deadLetter.maxAttempts", 10);
+        this.drainEnabled = cfg.getConfig().getBoolean("drain.enabled", true);
+        drainer.configure(cfg.getInt("drain.pageSize", 500));
+        this.sloSampleIntervalMs = cfg.getLong("slo.sampleIntervalMs", 15000L);
+        lagMonitor.configure(cfg);
 
         this.parallelism = new Semaphore(Math.max(1, maxConc));
 
-        if (workers != null) workers.shutdownNow();
+        // старый пул дорабатывает уже отданные выдачи — они учтены в буферах и должны завершиться
+        if (workers != null) workers.shutdown();
         int poolSize = Math.max(2, maxConc);
         this.workers = Executors.newFixedThreadPool(poolSize, r -> {
             Thread t = new Thread(r, "PrimeRewards-Worker");
@@ -85,87 +159,563 @@ public final class Dispatcher {
         this.rateLimiter = new RateLimiter(qps);
     }
 
+    /** не блокирует: подключение к БД и проверка схемы — в потоке диспетчера, опрос стартует после них */
     public void start() {
         if (!running.compareAndSet(false, true)) return;
+        scheduler.execute(this::connectSafe);
+        if (audit != null && auditSummaryIntervalMs > 0) {
+            scheduler.scheduleWithFixedDelay(this::logSummary, auditSummaryIntervalMs, auditSummaryIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+        if (rollup != null) {
+            scheduler.scheduleWithFixedDelay(this::flushRollupSafe, rollupFlushIntervalMs, rollupFlushIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** ожидание БД: повторяем подключение с экспоненциальным backoff, пока сервер работает */
+    private void connectSafe() {
+        if (!running.get()) return;
+        try {
+            db.connect();
+        } catch (Throwable t) {
+            long delay = connectDelayMs;
+            connectDelayMs = Math.min(delay * 2, connectRetryMaxMs);
+            log.warning("Database is not available (" + t.getMessage() + "), retry in " + delay + "ms");
+            try {
+                scheduler.schedule(this::connectSafe, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ignored) {
+                // останавливаемся
+            }
+            return;
+        }
+        ensureDeadLetterSchema();
+        ensureRollupSchema();
+        log.info("Database connected, polling started");
         scheduler.scheduleWithFixedDelay(this::tickSafe, 0L, intervalMs, TimeUnit.MILLISECONDS);
+        if (sloSampleIntervalMs > 0) {
+            scheduler.scheduleWithFixedDelay(this::sampleLagSafe, sloSampleIntervalMs, sloSampleIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
     }
 
     public void stopAndWait() {
         running.set(false);
+        drainer.stop();
+        pumpThread.shutdownNow();
         scheduler.shutdown();
         try { scheduler.awaitTermination(5, TimeUnit.SECONDS); } catch (InterruptedException ignored) {}
         if (workers != null) {
             workers.shutdown();
             try { workers.awaitTermination(30, TimeUnit.SECONDS); } catch (InterruptedException ignored) {}
         }
+        dbRetries.flushNow(10_000L);
+        if (rollup != null) flushRollupSafe();
+        if (audit != null) {
+            logSummary();
+            audit.close();
+        }
+    }
+
+    /** при включённом аудите консоль получает только периодическую сводку */
+    private void logSummary() {
+        long ok = summaryDelivered.getAndSet(0);
+        long fail = summaryFailed.getAndSet(0);
+        if (ok == 0 && fail == 0) return;
+        String last = lastFailure;
+        log.info("Deliveries: ok=" + ok + " failed=" + fail
+                + (fail > 0 && last != null ? " (last failure: " + last + ")" : "")
+                + (audit.dropped() > 0 ? " auditDropped=" + audit.dropped() : ""));
     }
 
     private void tickSafe() {
         if (!running.get()) return;
         try {
-            for (RewardSource src : sources) {
-                processSource(src);
-            }
+            ensureDeadLetterSchema();
+            refill();
         } catch (Throwable t) {
             log.log(Level.SEVERE, "Dispatcher tick failed", t);
         }
     }
 
-    private void processSource(RewardSource src) {
-        List<RewardItem> batch;
+    /**
+     * Без таблицы карантина выдача не останавливается: источники выбирают без NOT EXISTS, безнадёжные строки
+     * остаются на backoff вместо карантина. Проверка повторяется каждым тиком, предупреждение — один раз.
+     */
+    private void ensureDeadLetterSchema() {
+        if (deadLetters == null || deadLetters.isReady()) return;
+        try {
+            deadLetters.ensureSchema();
+            if (deadLetterWarned) log.info("Dead-letter table " + deadLetters.table() + " is available, quarantine enabled");
+        } catch (Exception e) {
+            if (!deadLetterWarned) {
+                log.warning("Dead-letter table " + deadLetters.table() + " is not available, quarantine disabled: "
+                        + e.getMessage());
+            }
+            deadLetterWarned = true;
+        }
+    }
+
+    /** свёртка — только для отчётов: без неё выдача идёт, счётчики просто не пишутся */
+    private void ensureRollupSchema() {
+        if (rollup == null || rollupReady) return;
+        try {
+            rollup.ensureSchema();
+            rollupReady = true;
+        } catch (Exception e) {
+            if (!rollupWarned) log.warning("Rollup table " + rollup.table() + " is not available: " + e.getMessage());
+            rollupWarned = true;
+        }
+    }
+
+    /** счётчики свёртки — после коммита отметки, в памяти; в БД их пишет flushRollupSafe() */
+    private void countRollup(RewardSource src, RewardItem item, boolean ok) {
+        if (rollup == null) return;
+        if (ok) {
+            long lag = item.orderedAt > 0 ? System.currentTimeMillis() - item.orderedAt : -1L;
+            rollup.recordDelivered(src.name(), item.tier, item.amount, lag);
+        } else {
+            rollup.recordFailed(src.name(), item.tier);
+        }
+    }
+
+    private void flushRollupSafe() {
+        if (!db.isReady()) return; // счётчики подождут подключения
+        ensureRollupSchema();
+        if (!rollupReady) return;
+        try {
+            rollup.flush();
+        } catch (Exception e) {
+            log.warning("Rollup flush failed (counters kept for the next flush): " + e.getMessage());
+        }
+    }
+
+    private void sampleLagSafe() {
+        if (!running.get()) return;
+        try {
+            lagMonitor.sample(sources);
+        } catch (Throwable t) {
+            log.log(Level.WARNING, "SLO sampling failed", t);
+        }
+    }
+
+    /**
+     * Стадия выборки (поток диспетчера): дополнить буферы источников, опустившиеся до lowWater.
+     * Вызывается по таймеру и досрочно — когда воркеры выбрали буфер.
+     */
+    private void refill() {
+        int capacity = bufferCapacity();
+        int low = Math.min(lowWater, capacity - 1);
+        List<SourcePipeline> due = new ArrayList<>();
+        for (SourcePipeline p : pipelines) {
+            if (!drainer.isDraining(p.source) && ready(p) <= low) due.add(p);
+        }
+        if (due.isEmpty()) return;
+
+        if (combinedFetch) {
+            refillCombined(due, capacity);
+        } else {
+            for (SourcePipeline p : due) {
+                int limit = p.fetchLimit(capacity, it -> held(p.source, it));
+                if (limit <= 0) continue;
+                DeliveryEvents.Fetch ev = new DeliveryEvents.Fetch();
+                ev.begin();
+                try {
+                    List<RewardItem> batch = p.source.fetchPending(limit);
+                    DeliveryEvents.fetched(ev, p.source.name(), limit, batch.size(), false);
+                    accept(p, batch, limit, capacity);
+                } catch (Exception e) {
+                    log.warning("fetchPending failed for " + p.source.name() + ": " + e.getMessage());
+                }
+            }
+        }
+        requestPump();
+    }
+
+    /** один UNION ALL на все источники, опустившиеся до lowWater */
+    private void refillCombined(List<SourcePipeline> due, int capacity) {
+        Map<RewardSource, Integer> limits = new HashMap<>();
+        List<RewardSource> srcs = new ArrayList<>(due.size());
+        for (SourcePipeline p : due) {
+            limits.put(p.source, p.fetchLimit(capacity, it -> held(p.source, it)));
+            srcs.add(p.source);
+        }
+        Map<RewardSource, List<RewardItem>> batches;
+        DeliveryEvents.Fetch ev = new DeliveryEvents.Fetch();
+        ev.begin();
         try {
-            batch = src.fetchPending(batchSize);
+            batches = combinedFetcher.fetch(srcs, limits::get);
+            int rows = 0;
+            for (List<RewardItem> b : batches.values()) rows += b.size();
+            DeliveryEvents.fetched(ev, "combined", limits.values().stream().mapToInt(Integer::intValue).sum(), rows,
+                    false);
         } catch (Exception e) {
-            log.warning("fetchPending failed for " + src.name() + ": " + e.getMessage());
+            log.warning("combined fetch failed: " + e.getMessage());
             return;
         }
-        if (batch.isEmpty()) return;
+        for (SourcePipeline p : due) {
+            int limit = limits.get(p.source);
+            if (limit <= 0) continue;
+            accept(p, batches.get(p.source), limit, capacity);
+        }
+    }
+
+    private void accept(SourcePipeline p, List<RewardItem> batch, int limit, int capacity) {
+        int added = p.offer(batch, item -> isDue(item, p.source), capacity, item -> held(p.source, item));
+        p.setMore(batch.size() >= limit);
+        if (batch.size() < limit) releaseMissingBlocks(p, batch);
+        // выборка упёрлась в LIMIT и свежими готовыми строками заполнила буфер: в БД бэклог больше буфера —
+        // переходим на чтение страницами. Пачка из строк на backoff или с запаркованной отметкой догонку не запускает:
+        // раздавать из неё нечего, а страница перечитала бы те же строки
+        if (drainEnabled && batch.size() >= limit && limit >= batchSize && added > 0 && ready(p) >= capacity) {
+            drainer.start(p.source, batchSize, (src, item, onDone) -> submitBlocking(p, item, onDone));
+        }
+    }
+
+    /** досрочная дозагрузка буферов, не чаще одной в очереди диспетчера */
+    private void requestRefill() {
+        if (!running.get() || !refillRequested.compareAndSet(false, true)) return;
+        try {
+            scheduler.execute(() -> {
+                refillRequested.set(false);
+                tickSafe();
+            });
+        } catch (RejectedExecutionException e) {
+            refillRequested.set(false);
+        }
+    }
 
-        for (RewardItem item : batch) {
-            long now = System.currentTimeMillis();
-            long gate = nextAllowedAtMillis.getOrDefault(item.id, 0L);
-            if (gate > now) continue;
+    /** выборка полная: упавшая выдача, которой в ней нет и которая не в работе, больше не ждёт повтора */
+    private void releaseMissingBlocks(SourcePipeline p, List<RewardItem> batch) {
+        Set<Long> ids = new HashSet<>();
+        for (RewardItem item : batch) ids.add(item.id);
+        lanes.unblockMissing(p.source.name(), id -> ids.contains(id) || p.isTracked(id));
+    }
 
-            if (!parallelism.tryAcquire()) continue;
-            rateLimiter.acquire();
+    private void requestPump() {
+        if (!running.get() || !pumpRequested.compareAndSet(false, true)) return;
+        try {
+            pumpThread.execute(() -> {
+                pumpRequested.set(false);
+                pump();
+            });
+        } catch (RejectedExecutionException e) {
+            pumpRequested.set(false);
+        }
+    }
 
-            workers.submit(() -> {
-                try (Connection tx = db.getConnection()) {
-                    tx.setAutoCommit(false);
-                    try {
-                        executor.execute(item, src.name());
-
-                        boolean ok = retryDb(() -> src.markDelivered(tx, item.id));
-                        if (!ok) throw new RuntimeException("MarkDelivered returned false");
-
-                        tx.commit();
-                        delivered.incrementAndGet();
-                        log.info("[OK] " + src.name() + " id=" + item.id + " order_id=" + item.orderId +
-                                " tier=" + item.tier + " nick=" + item.nickname);
-                        nextAllowedAtMillis.remove(item.id);
-                    } catch (Exception ex) {
-                        try { tx.rollback(); } catch (Exception ignore) {}
-
-                        long delay = computeNextBackoff(item.id);
-                        nextAllowedAtMillis.put(item.id, System.currentTimeMillis() + delay);
-
-                        try (Connection tx2 = db.getConnection()) {
-                            tx2.setAutoCommit(false);
-                            String reason = trimReason(ex.getMessage());
-                            boolean marked = retryDb(() -> src.markFailed(tx2, item.id, reason));
-                            if (marked) tx2.commit(); else tx2.rollback();
-                        } catch (Exception dbEx) {
-                            log.warning("markFailed error for id=" + item.id + ": " + dbEx.getMessage());
-                        }
-                        failed.incrementAndGet();
-                        log.warning("[FAIL] " + src.name() + " id=" + item.id + " " + ex.getMessage());
+    /**
+     * Стадия раздачи (свой поток): пока есть свободные слоты, по кругу берём по строке из буферов источников.
+     * Запускается после выборки и после завершения каждой выдачи — воркеры не ждут следующего тика.
+     */
+    private void pump() {
+        int n = pipelines.size();
+        if (n == 0) return;
+        boolean submittedAny = false;
+        try {
+            boolean progress = true;
+            while (running.get() && progress) {
+                progress = false;
+                for (int i = 0; i < n; i++) {
+                    SourcePipeline p = pipelines.get((pumpCursor + i) % n);
+                    Semaphore permits = parallelism;
+                    if (!permits.tryAcquire()) return;
+                    // первая строка, чей ник сейчас не в работе; слот ника занимается здесь же
+                    RewardItem item = p.poll(it -> tryAcquireLane(p.source, it));
+                    if (item == null) {
+                        permits.release();
+                        continue;
+                    }
+                    rateLimiter.acquire();
+                    submit(p, item, permits, null);
+                    progress = true;
+                    submittedAny = true;
+                }
+                pumpCursor = (pumpCursor + 1) % n;
+            }
+        } catch (Throwable t) {
+            log.log(Level.SEVERE, "Dispatcher pump failed", t);
+        } finally {
+            // досрочно — только если буфер реально расходуется и в БД точно есть ещё строки, иначе ждём тика
+            if (submittedAny) {
+                int low = Math.min(lowWater, bufferCapacity() - 1);
+                for (SourcePipeline p : pipelines) {
+                    if (p.hasMore() && !drainer.isDraining(p.source) && ready(p) <= low) {
+                        requestRefill();
+                        break;
                     }
-                } catch (Exception outer) {
-                    log.warning("Worker fatal for id=" + item.id + ": " + outer.getMessage());
+                }
+            }
+        }
+    }
+
+    /** для режима догонки: ждём свободный слот вместо пропуска элемента */
+    private boolean submitBlocking(SourcePipeline p, RewardItem item, Runnable onDone) throws InterruptedException {
+        if (!running.get() || !isDue(item, p.source) || !p.track(item.id)) return false;
+
+        boolean laneTaken;
+        try {
+            laneTaken = !perPlayerOrdering || lanes.acquire(PlayerLanes.key(item), markKey(p.source, item));
+        } catch (InterruptedException e) {
+            p.done(item.id);
+            throw e;
+        }
+        if (!laneTaken) {
+            p.done(item.id);
+            return false;
+        }
+        Semaphore permits = parallelism;
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            releaseLane(item);
+            p.done(item.id);
+            throw e;
+        }
+        rateLimiter.acquire();
+        return submit(p, item, permits, onDone);
+    }
+
+    private boolean tryAcquireLane(RewardSource src, RewardItem item) {
+        return !perPlayerOrdering || lanes.tryAcquire(PlayerLanes.key(item), markKey(src, item));
+    }
+
+    /** строка ждёт исхода другой упавшей выдачи своего ника */
+    private boolean held(RewardSource src, RewardItem item) {
+        return perPlayerOrdering && lanes.held(PlayerLanes.key(item), markKey(src, item));
+    }
+
+    /** порог дозагрузки считаем без придержанных строк — они не расходуются, пока ник заблокирован */
+    private int ready(SourcePipeline p) {
+        return p.ready(it -> held(p.source, it));
+    }
+
+    private void releaseLane(RewardItem item) {
+        // снимаем безусловно: ordering.perPlayer мог быть выключен reload'ом, пока выдача шла
+        lanes.release(PlayerLanes.key(item));
+    }
+
+    /** permit и слот ника уже взяты; по завершении — освободить их, снять учёт и подтолкнуть раздачу */
+    private boolean submit(SourcePipeline p, RewardItem item, Semaphore permits, Runnable onDone) {
+        // ожидание считаем с приёма строки в буфер (или догонкой), а не с передачи пулу: permit уже взят,
+        // и передача занимает микросекунды — реальная очередь это буфер и ожидание permit
+        long acceptedAt = p.acceptedAt(item.id);
+        try {
+            workers.submit(() -> {
+                try {
+                    deliver(p.source, item, acceptedAt);
                 } finally {
-                    parallelism.release();
+                    permits.release();
+                    releaseLane(item);
+                    p.done(item.id);
+                    if (onDone != null) onDone.run();
+                    requestPump();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            releaseLane(item);
+            p.done(item.id);
+            return false;
+        }
+    }
+
+    private int bufferCapacity() {
+        return Math.max(1, bufferSize > 0 ? bufferSize : batchSize);
+    }
+
+    private boolean isDue(RewardItem item, RewardSource src) {
+        if (dbRetries.isParked(markKey(src, item))) return false; // отметка в БД ещё не записана
+        return nextAllowedAtMillis.getOrDefault(item.id, 0L) <= System.currentTimeMillis();
+    }
+
+    private static String markKey(RewardSource src, RewardItem item) {
+        return src.name() + "#" + item.id;
+    }
+
+    /**
+     * Команды выполняются без соединения с БД; отметка — отдельной короткой транзакцией через DbRetryQueue.
+     * При сбое БД воркер не спит: операция паркуется, а завершение выдачи происходит в колбэке.
+     */
+    private void deliver(RewardSource src, RewardItem item, long acceptedAt) {
+        long startedAt = System.currentTimeMillis();
+        DeliveryEvents.QueueWait qw = new DeliveryEvents.QueueWait();
+        if (qw.shouldCommit()) {
+            qw.source = src.name();
+            qw.itemId = item.id;
+            qw.waited = startedAt - acceptedAt;
+            qw.commit();
+        }
+        try {
+            executor.execute(item, src.name());
+        } catch (Exception ex) {
+            onFailure(src, item, acceptedAt, startedAt, ex);
+            return;
+        }
+        dbRetries.submit(markKey(src, item), tx -> src.markDelivered(tx, item.id), (ok, dbEx) -> {
+            if (ok) {
+                delivered.incrementAndGet();
+                countRollup(src, item, true);
+                lagMonitor.recordDelivery(src.name(), item);
+                audit(src, item, acceptedAt, startedAt, null);
+                nextAllowedAtMillis.remove(item.id);
+                failuresByKey.remove(markKey(src, item));
+                lanes.unblock(PlayerLanes.key(item), markKey(src, item));
+            } else {
+                onFailure(src, item, acceptedAt, startedAt,
+                        dbEx != null ? dbEx : new RuntimeException("MarkDelivered returned false"));
+            }
+        });
+    }
+
+    private void onFailure(RewardSource src, RewardItem item, long acceptedAt, long startedAt, Exception ex) {
+        long delay = computeNextBackoff(item.id);
+        nextAllowedAtMillis.put(item.id, System.currentTimeMillis() + delay);
+
+        String key = markKey(src, item);
+        String reason = trimReason(ex.getMessage());
+        int attempts = Math.max(failuresByKey.merge(key, 1, Integer::sum), storedAttempts(item) + 1);
+        boolean permanent = ex instanceof PermanentRewardException;
+        if (deadLetters != null && deadLetters.isReady() && (permanent || (deadLetterMaxAttempts > 0 && attempts >= deadLetterMaxAttempts))) {
+            DeliveryEvents.retry(key, permanent ? "permanent" : "dead-letter", attempts, 0L, reason);
+            dbRetries.submit(key, tx -> {
+                src.markFailed(tx, item.id, reason);
+                return deadLetters.quarantine(tx, src.name(), item.id, item.orderId, item.nickname, item.tier,
+                        attempts, reason);
+            }, (ok, dbEx) -> {
+                if (dbEx != null) {
+                    log.warning("dead-letter error for id=" + item.id + ": " + dbEx.getMessage());
+                    return;
                 }
+                deadLettered.incrementAndGet();
+                countRollup(src, item, false);
+                failuresByKey.remove(key);
+                lanes.unblock(PlayerLanes.key(item), key);
+                log.warning("[DEAD] " + src.name() + " id=" + item.id + " nick=" + item.nickname +
+                        " attempts=" + attempts + " " + reason);
             });
+            failed.incrementAndGet();
+            audit(src, item, acceptedAt, startedAt, (permanent ? "permanent: " : "dead-letter: ") + reason);
+            return;
+        }
+
+        DeliveryEvents.retry(key, "backoff", attempts, delay, reason);
+        // следующие выдачи этому нику ждут исхода именно этой строки, а не истечения backoff
+        if (perPlayerOrdering && holdOnFailure) lanes.block(PlayerLanes.key(item), key);
+        dbRetries.submit(markKey(src, item), tx -> src.markFailed(tx, item.id, reason), (marked, dbEx) -> {
+            if (dbEx != null) log.warning("markFailed error for id=" + item.id + ": " + dbEx.getMessage());
+            else if (marked) countRollup(src, item, false);
+            // строка больше не ждёт выдачи (выдана извне или снята) — повтора не будет, ник не держим
+            else if (!marked) lanes.unblock(PlayerLanes.key(item), key);
+        });
+        failed.incrementAndGet();
+        audit(src, item, acceptedAt, startedAt, reason);
+    }
+
+    /** попытки, уже записанные источником в БД (delivery_attempts) */
+    private static int storedAttempts(RewardItem item) {
+        return item.getAttr("attempts") instanceof Number n ? n.intValue() : 0;
+    }
+
+    public CompletableFuture<List<String>> deadLetterList(String source, int limit) {
+        if (deadLetters == null) return disabled("dead-letter");
+        if (!deadLetters.isReady()) return unavailable(deadLetters.table());
+        return dbCall(() -> deadLetters.list(source, limit));
+    }
+
+    /** id == null — вернуть в выдачу весь карантин источника */
+    public CompletableFuture<Integer> deadLetterRetry(String source, Long id) {
+        if (deadLetters == null) return disabled("dead-letter");
+        if (!deadLetters.isReady()) return unavailable(deadLetters.table());
+        RewardSource src = null;
+        for (RewardSource s : sources) {
+            if (s.name().equals(source)) src = s;
+        }
+        if (src == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("unknown or disabled source: " + source));
+        }
+        RewardSource target = src;
+        return dbCall(() -> {
+            List<Long> released;
+            try (Connection tx = db.getConnection()) {
+                tx.setAutoCommit(false);
+                try {
+                    released = deadLetters.release(tx, source, id);
+                    // без сброса попыток строка вернулась бы в карантин после первой же неудачи
+                    target.resetAttempts(tx, released);
+                    tx.commit();
+                } catch (Exception e) {
+                    try { tx.rollback(); } catch (Exception ignore) {}
+                    throw e;
+                }
+            }
+            for (long rid : released) {
+                nextAllowedAtMillis.remove(rid);
+                failuresByKey.remove(source + "#" + rid);
+            }
+            return released.size();
+        });
+    }
+
+    public boolean deadLetterEnabled() {
+        return deadLetters != null;
+    }
+
+    /** суточная свёртка за последние days дней */
+    public CompletableFuture<List<String>> dailyStats(int days) {
+        if (rollup == null) return disabled("rollup");
+        return dbCall(() -> rollup.daily(days));
+    }
+
+    public boolean rollupEnabled() {
+        return rollup != null;
+    }
+
+    private static <T> CompletableFuture<T> disabled(String feature) {
+        return CompletableFuture.failedFuture(new IllegalStateException(feature + " is disabled"));
+    }
+
+    private static <T> CompletableFuture<T> unavailable(String table) {
+        return CompletableFuture.failedFuture(new IllegalStateException("table " + table + " is not available"));
+    }
+
+    /** запросы для команд — в потоке диспетчера, не на главном */
+    private <T> CompletableFuture<T> dbCall(Callable<T> call) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return call.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, scheduler);
+    }
+
+    /** reason == null — успех */
+    private void audit(RewardSource src, RewardItem item, long acceptedAt, long startedAt, String reason) {
+        boolean ok = reason == null;
+        if (audit == null) {
+            if (ok) {
+                log.info("[OK] " + src.name() + " id=" + item.id + " order_id=" + item.orderId +
+                        " tier=" + item.tier + " nick=" + item.nickname);
+            } else {
+                log.warning("[FAIL] " + src.name() + " id=" + item.id + " " + reason);
+            }
+            return;
+        }
+        long now = System.currentTimeMillis();
+        audit.record(new AuditLog.Entry(now, src.name(), item.id, item.orderId, item.tier, item.nickname,
+                startedAt - acceptedAt, now - startedAt, item.orderedAt > 0 ? now - item.orderedAt : -1L,
+                ok, reason));
+        if (ok) {
+            summaryDelivered.incrementAndGet();
+        } else {
+            summaryFailed.incrementAndGet();
+            lastFailure = src.name() + " id=" + item.id + " " + reason;
+        }
+        if (log.isLoggable(Level.FINE)) {
+            log.fine((ok ? "[OK] " : "[FAIL] ") + src.name() + " id=" + item.id + " order_id=" + item.orderId
+                    + " tier=" + item.tier + " nick=" + item.nickname + (ok ? "" : " " + reason));
         }
     }
 
@@ -184,23 +734,13 @@ public final class Dispatcher {
         return Math.min(backoffMaxMs, next + jitter);
     }
 
-    private boolean retryDb(Callable<Boolean> op) throws Exception {
-        int attempts = 0;
-        while (true) {
-            try {
-                return op.call();
-            } catch (Exception e) {
-                attempts++;
-                if (attempts >= dbMaxRetries) throw e;
-                Thread.sleep(dbRetryBackoffMs * attempts);
-            }
-        }
-    }
-
     public String dumpStats() {
+        if (!db.isReady()) return "§eWaiting for database...§7 (see console for connection errors)";
         int active = (workers instanceof ThreadPoolExecutor tpe) ? tpe.getActiveCount() : -1;
         int queued = (workers instanceof ThreadPoolExecutor tpe) ? tpe.getQueue().size() : -1;
-        return String.format("§aDelivered:§f %d  §cFailed:§f %d  §7WorkersActive:§f %d  §7Queue:§f %d",
-                delivered.get(), failed.get(), active, queued);
+        int buffered = 0;
+        for (SourcePipeline p : pipelines) buffered += p.buffered();
+        return String.format("§aDelivered:§f %d  §cFailed:§f %d  §4DeadLetter:§f %d  §7WorkersActive:§f %d  §7Queue:§f %d  §7Buffered:§f %d",
+                delivered.get(), failed.get(), deadLettered.get(), active, queued, buffered) + "  " + dbRetries.dumpStats() + "  " + lanes.dumpStats() + "  " + executor.resolverStats() + lagMonitor.dumpStats();
     }
 }
@@ -0,0 +1,40 @@
+package su.primecorp.primerewards.core;
+
+import org.bukkit.plugin.Plugin;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Где выполнять код, которому нужен поток сервера: на Paper — главный поток, на Folia — глобальный регион.
+ * Выдача трогает сервер только консольными командами, а их исполнение на Folia всё равно ждёт глобальный регион,
+ * поэтому регион игрока не используется; параллельность выдач — в воркерах и нативных действиях.
+ */
+public interface ExecutionBackend {
+
+    /** выполнить task на потоке сервера и дождаться результата через future */
+    <T> CompletableFuture<T> call(Callable<T> task);
+
+    /** без ожидания результата: рассылки, ответы на команды */
+    void runGlobal(Runnable task);
+
+    String name();
+
+    static ExecutionBackend detect(Plugin plugin) {
+        try {
+            Class.forName("io.papermc.paper.threadedregions.RegionizedServer");
+            return new FoliaExecutionBackend(plugin);
+        } catch (ClassNotFoundException e) {
+            return new BukkitExecutionBackend(plugin);
+        }
+    }
+
+    /** выполнить task и перенести результат/исключение в future */
+    static <T> void complete(CompletableFuture<T> future, Callable<T> task) {
+        try {
+            future.complete(task.call());
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package su.primecorp.primerewards.core;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/** Folia: главного потока нет; консольные команды и прочее глобальное состояние — в GlobalRegionScheduler */
+final class FoliaExecutionBackend implements ExecutionBackend {
+
+    private final Plugin plugin;
+
+    FoliaExecutionBackend(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public <T> CompletableFuture<T> call(Callable<T> task) {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        Bukkit.getGlobalRegionScheduler().execute(plugin, () -> ExecutionBackend.complete(f, task));
+        return f;
+    }
+
+    @Override
+    public void runGlobal(Runnable task) {
+        if (plugin.isEnabled()) Bukkit.getGlobalRegionScheduler().execute(plugin, task);
+    }
+
+    @Override
+    public String name() {
+        return "folia";
+    }
+}
@@ -0,0 +1,39 @@
+package su.primecorp.primerewards.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Раскладка дополнительных атрибутов источника: имя -> индекс слота в {@link RewardItem}.
+ * Создаётся один раз на источник, элементы хранят только массив значений.
+ */
+public final class ItemSchema {
+
+    public static final ItemSchema EMPTY = new ItemSchema();
+
+    private final String[] names;
+    private final Map<String, Integer> index = new HashMap<>();
+
+    private ItemSchema(String... names) {
+        this.names = names.clone();
+        for (int i = 0; i < names.length; i++) {
+            if (index.putIfAbsent(names[i], i) != null) {
+                throw new IllegalArgumentException("Duplicate attribute: " + names[i]);
+            }
+        }
+    }
+
+    public static ItemSchema of(String... names) {
+        return names.length == 0 ? EMPTY : new ItemSchema(names);
+    }
+
+    public int size() { return names.length; }
+
+    public String name(int slot) { return names[slot]; }
+
+    /** -1, если атрибута нет */
+    public int slot(String name) {
+        Integer i = index.get(name);
+        return i == null ? -1 : i;
+    }
+}
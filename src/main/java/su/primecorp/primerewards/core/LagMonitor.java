@@ -0,0 +1,183 @@
+package su.primecorp.primerewards.core;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import su.primecorp.primerewards.mysql.DbPool;
+import su.primecorp.primerewards.util.SafeConfig;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * SLO доставки: по каждому источнику — размер бэклога и возраст самой старой невыданной строки
+ * (COUNT/MIN по pendingSelectSql()), плюс скользящие перцентили задержки «оплата -> выдача».
+ * При превышении порогов — предупреждение в лог и сообщение игрокам с правом primerewards.alerts.
+ */
+final class LagMonitor {
+
+    static final String ALERT_PERMISSION = "primerewards.alerts";
+
+    private final ExecutionBackend backend;
+    private final DbPool db;
+    private final Logger log;
+
+    private final ConcurrentHashMap<String, SourceLag> bySource = new ConcurrentHashMap<>();
+
+    private volatile long maxLagMs;
+    private volatile long maxBacklog;
+    private volatile long alertCooldownMs;
+    private volatile boolean broadcast;
+    private volatile int window;
+
+    LagMonitor(ExecutionBackend backend, DbPool db, Logger log) {
+        this.backend = backend;
+        this.db = db;
+        this.log = log;
+    }
+
+    void configure(SafeConfig cfg) {
+        this.maxLagMs = cfg.getLong("slo.maxLagMs", 60000L);
+        this.maxBacklog = cfg.getLong("slo.maxBacklog", 500L);
+        this.alertCooldownMs = cfg.getLong("slo.alertCooldownMs", 300000L);
+        this.broadcast = cfg.getConfig().getBoolean("slo.broadcast", true);
+        int w = Math.max(16, cfg.getInt("slo.percentileWindow", 512));
+        if (w != window) {
+            this.window = w;
+            bySource.clear();
+        }
+    }
+
+    /** задержка выдачи конкретного элемента; вызывается воркером после commit */
+    void recordDelivery(String source, RewardItem item) {
+        if (item.orderedAt <= 0) return;
+        long latency = Math.max(0, System.currentTimeMillis() - item.orderedAt);
+        lag(source).latencies.add(latency);
+    }
+
+    /** дешёвый замер бэклога: одно соединение, COUNT/MIN на источник */
+    void sample(List<RewardSource> sources) {
+        try (Connection c = db.getConnection()) {
+            for (RewardSource src : sources) {
+                String sql = "SELECT COUNT(*) AS backlog, MIN(q.ordered_at) AS oldest FROM (" + src.pendingSelectSql() + ") q";
+                try (PreparedStatement ps = c.prepareStatement(sql);
+                     ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) continue;
+                    SourceLag l = lag(src.name());
+                    l.backlog = rs.getLong("backlog");
+                    Timestamp oldest = rs.getTimestamp("oldest");
+                    l.oldestLagMs = oldest == null ? 0L : Math.max(0, System.currentTimeMillis() - oldest.getTime());
+                    l.sampled = true;
+                    checkSlo(src.name(), l);
+                }
+            }
+        } catch (Exception e) {
+            log.warning("SLO sample failed: " + e.getMessage());
+        }
+    }
+
+    private void checkSlo(String source, SourceLag l) {
+        boolean breached = l.oldestLagMs > maxLagMs || l.backlog > maxBacklog;
+        long now = System.currentTimeMillis();
+        if (breached) {
+            if (l.breached && now - l.lastAlertAt < alertCooldownMs) return;
+            l.breached = true;
+            l.lastAlertAt = now;
+            alert("§c[PrimeRewards] SLO breach: " + source + " oldest pending " + formatMs(l.oldestLagMs)
+                    + " (limit " + formatMs(maxLagMs) + "), backlog " + l.backlog + " (limit " + maxBacklog + ")");
+        } else if (l.breached) {
+            l.breached = false;
+            alert("§a[PrimeRewards] SLO recovered: " + source + " oldest pending " + formatMs(l.oldestLagMs)
+                    + ", backlog " + l.backlog);
+        }
+    }
+
+    private void alert(String msg) {
+        log.warning(msg.replaceAll("§.", ""));
+        if (!broadcast) return;
+        backend.runGlobal(() -> {
+            for (Player p : Bukkit.getOnlinePlayers()) {
+                if (p.hasPermission(ALERT_PERMISSION)) p.sendMessage(msg);
+            }
+        });
+    }
+
+    String dumpStats() {
+        StringBuilder sb = new StringBuilder();
+        bySource.forEach((source, l) -> {
+            long[] p = l.latencies.percentiles(0.50, 0.95, 0.99);
+            sb.append("\n§7").append(source).append(":§f");
+            if (l.sampled) {
+                sb.append(" backlog=").append(l.backlog)
+                        .append(" oldest=").append(formatMs(l.oldestLagMs));
+            }
+            if (p != null) {
+                sb.append(" §7p50/p95/p99:§f ").append(formatMs(p[0]))
+                        .append('/').append(formatMs(p[1]))
+                        .append('/').append(formatMs(p[2]));
+            }
+            if (l.breached) sb.append(" §c[SLO]");
+        });
+        return sb.toString();
+    }
+
+    private SourceLag lag(String source) {
+        return bySource.computeIfAbsent(source, k -> new SourceLag(window));
+    }
+
+    private static String formatMs(long ms) {
+        if (ms < 1000) return ms + "ms";
+        if (ms < 120_000) return String.format("%.1fs", ms / 1000.0);
+        return (ms / 60_000) + "m";
+    }
+
+    private static final class SourceLag {
+        final LatencyWindow latencies;
+        volatile long backlog;
+        volatile long oldestLagMs;
+        volatile boolean sampled;
+        volatile boolean breached;
+        long lastAlertAt; // только поток сэмплинга
+
+        SourceLag(int window) {
+            this.latencies = new LatencyWindow(window);
+        }
+    }
+
+    /** кольцо последних N задержек; перцентили считаются по копии только при запросе статистики */
+    private static final class LatencyWindow {
+        private final long[] ring;
+        private int next;
+        private int size;
+
+        LatencyWindow(int capacity) {
+            this.ring = new long[capacity];
+        }
+
+        synchronized void add(long v) {
+            ring[next] = v;
+            next = (next + 1) % ring.length;
+            if (size < ring.length) size++;
+        }
+
+        long[] percentiles(double... qs) {
+            long[] copy;
+            synchronized (this) {
+                if (size == 0) return null;
+                copy = Arrays.copyOf(ring, size);
+            }
+            Arrays.sort(copy);
+            long[] out = new long[qs.length];
+            for (int i = 0; i < qs.length; i++) {
+                int idx = (int) Math.ceil(qs[i] * copy.length) - 1;
+                out[i] = copy[Math.max(0, Math.min(copy.length - 1, idx))];
+            }
+            return out;
+        }
+    }
+}
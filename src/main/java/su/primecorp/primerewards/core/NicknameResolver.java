@@ -0,0 +1,88 @@
+package su.primecorp.primerewards.core;
+
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import su.primecorp.primerewards.util.SafeConfig;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ник -> UUID до выполнения команд, в потоке воркера. Источник — кэш профилей сервера
+ * (онлайн-игроки и usercache.json через getOfflinePlayerIfCached): без сетевых запросов и без прыжка на поток сервера.
+ * Ограниченный LRU; промахи кэшируются отдельно на короткое время — игрок может зайти позже.
+ */
+final class NicknameResolver {
+
+    /** метка промаха в LRU */
+    private static final UUID UNKNOWN = new UUID(0L, 0L);
+
+    private static final class Entry {
+        final UUID uuid;
+        final long expiresAt;
+
+        Entry(UUID uuid, long expiresAt) {
+            this.uuid = uuid;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong unknown = new AtomicLong();
+
+    private volatile Map<String, Entry> cache = lru(1);
+    private volatile long positiveTtlMs;
+    private volatile long negativeTtlMs;
+
+    void configure(SafeConfig cfg) {
+        int size = Math.max(16, cfg.getInt("resolve.cacheSize", 10000));
+        this.positiveTtlMs = cfg.getLong("resolve.positiveTtlMs", 3_600_000L);
+        this.negativeTtlMs = cfg.getLong("resolve.negativeTtlMs", 60_000L);
+        this.cache = lru(size);
+    }
+
+    /** null — игрок неизвестен серверу (ни разу не заходил) */
+    UUID resolve(String nickname) {
+        String key = nickname.toLowerCase(Locale.ROOT);
+        Map<String, Entry> c = cache;
+        long now = System.currentTimeMillis();
+        synchronized (c) {
+            Entry e = c.get(key);
+            if (e != null && e.expiresAt > now) {
+                hits.incrementAndGet();
+                return e.uuid == UNKNOWN ? null : e.uuid;
+            }
+        }
+        misses.incrementAndGet();
+        OfflinePlayer p = Bukkit.getOfflinePlayerIfCached(nickname);
+        UUID uuid = p == null ? null : p.getUniqueId();
+        if (uuid == null) unknown.incrementAndGet();
+        synchronized (c) {
+            c.put(key, uuid == null ? new Entry(UNKNOWN, now + negativeTtlMs) : new Entry(uuid, now + positiveTtlMs));
+        }
+        return uuid;
+    }
+
+    String dumpStats() {
+        Map<String, Entry> c = cache;
+        int size;
+        synchronized (c) {
+            size = c.size();
+        }
+        return String.format("§7Resolve:§f cached=%d hits=%d misses=%d unknown=%d",
+                size, hits.get(), misses.get(), unknown.get());
+    }
+
+    private static Map<String, Entry> lru(int maxSize) {
+        return new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+}
@@ -0,0 +1,56 @@
+package su.primecorp.primerewards.core;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Общая раскладка колонок выборки «готовых к выдаче» строк.
+ * Все источники отдают одинаковый набор алиасов — это позволяет склеивать их через UNION ALL.
+ */
+public final class PendingSql {
+
+    /** алиасы колонок в порядке SELECT; отсутствующие у источника заполняются значением по умолчанию */
+    public static final List<String> COLUMNS = List.of(
+            "id", "order_id", "nickname", "tier", "amount", "currency",
+            "attempts", "ordered_at", "unitpay_id", "is_test", "grant_qty");
+
+    private static final Map<String, String> DEFAULTS = Map.of(
+            "amount", "0",
+            "attempts", "0",
+            "ordered_at", "NOW()",
+            "grant_qty", "0");
+
+    private PendingSql() {}
+
+    /** 1-based номер колонки alias внутри раскладки (без учёта колонок перед ней, см. {@link #offset}) */
+    public static int index(String alias) {
+        int i = COLUMNS.indexOf(alias);
+        if (i < 0) throw new IllegalArgumentException("Unknown pending column: " + alias);
+        return i + 1;
+    }
+
+    /** сколько колонок стоит перед раскладкой (src_idx в объединённой выборке); постоянно для ResultSet */
+    public static int offset(ResultSet rs) throws SQLException {
+        return rs.getMetaData().getColumnCount() - COLUMNS.size();
+    }
+
+    /**
+     * @param exprs alias -> SQL-выражение (колонка таблицы); null/пусто — подставим значение по умолчанию
+     */
+    public static String select(Map<String, String> exprs, String table, String where, String orderBy) {
+        StringBuilder sb = new StringBuilder("SELECT ");
+        for (int i = 0; i < COLUMNS.size(); i++) {
+            String alias = COLUMNS.get(i);
+            String expr = exprs.get(alias);
+            if (expr == null || expr.isBlank()) expr = DEFAULTS.getOrDefault(alias, "NULL");
+            if (i > 0) sb.append(", ");
+            sb.append(expr).append(" AS ").append(alias);
+        }
+        sb.append(" FROM ").append(table)
+                .append(" WHERE ").append(where)
+                .append(" ORDER BY ").append(orderBy);
+        return sb.toString();
+    }
+}
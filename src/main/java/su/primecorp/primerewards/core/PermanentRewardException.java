@@ -0,0 +1,8 @@
+package su.primecorp.primerewards.core;
+
+/** Ошибка, которую повтор не исправит (нет действий для tier, невалидный ник) — сразу в карантин */
+public final class PermanentRewardException extends Exception {
+    public PermanentRewardException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,101 @@
+package su.primecorp.primerewards.core;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongPredicate;
+
+/**
+ * Сериализация выдач по игроку: на один ник одновременно в работе не больше одной выдачи,
+ * разные ники идут параллельно. Порядок внутри ника задаёт порядок буфера (ORDER BY источника).
+ * После неудачи ник блокируется конкретной упавшей выдачей: пока она не выдана или не ушла в карантин,
+ * в работу по этому нику берётся только она — следующая покупка не может её обогнать.
+ */
+final class PlayerLanes {
+
+    private final Set<String> busy = new HashSet<>();
+    private final Map<String, String> blockedBy = new HashMap<>(); // ник -> src#id упавшей выдачи
+
+    /** null — выдача не привязана к нику (будет отклонена исполнителем), сериализовать нечего */
+    static String key(RewardItem item) {
+        return item.nickname == null ? null : item.nickname.toLowerCase(Locale.ROOT);
+    }
+
+    /** @param itemKey src#id выдачи, которую берём в работу */
+    synchronized boolean tryAcquire(String key, String itemKey) {
+        if (key == null) return true;
+        if (busy.contains(key) || !mayRun(key, itemKey)) return false;
+        busy.add(key);
+        return true;
+    }
+
+    /**
+     * Для догонки: дождаться, пока ник освободится. false — ник заблокирован другой упавшей выдачей,
+     * строку надо пропустить (её подберёт следующий проход в прежнем порядке).
+     */
+    synchronized boolean acquire(String key, String itemKey) throws InterruptedException {
+        if (key == null) return true;
+        while (busy.contains(key)) wait();
+        if (!mayRun(key, itemKey)) return false;
+        busy.add(key);
+        return true;
+    }
+
+    synchronized void release(String key) {
+        if (key == null) return;
+        busy.remove(key);
+        notifyAll();
+    }
+
+    /** itemKey упала и будет повторена: до её исхода остальные выдачи ника ждут */
+    synchronized void block(String key, String itemKey) {
+        if (key != null) blockedBy.put(key, itemKey);
+    }
+
+    /** itemKey выдана, ушла в карантин или больше не ожидает выдачи */
+    synchronized void unblock(String key, String itemKey) {
+        if (key != null && blockedBy.remove(key, itemKey)) notifyAll();
+    }
+
+    /**
+     * Полная (не упёршаяся в LIMIT) выборка источника не вернула упавшую выдачу — она больше не ожидает выдачи
+     * (заказ отменён, строка ушла из readyWhere), повтора не будет. Снимаем такие блокировки.
+     * @param pending id строк источника, которые ещё ждут выдачи (в выборке, в буфере или в работе)
+     */
+    synchronized void unblockMissing(String source, LongPredicate pending) {
+        String prefix = source + "#";
+        boolean removed = false;
+        for (Iterator<String> it = blockedBy.values().iterator(); it.hasNext(); ) {
+            String itemKey = it.next();
+            if (!itemKey.startsWith(prefix)) continue;
+            if (!pending.test(Long.parseLong(itemKey.substring(prefix.length())))) {
+                it.remove();
+                removed = true;
+            }
+        }
+        if (removed) notifyAll();
+    }
+
+    /** строка придержана: ник заблокирован другой упавшей выдачей */
+    synchronized boolean held(String key, String itemKey) {
+        return key != null && !mayRun(key, itemKey);
+    }
+
+    /** ordering.holdOnFailure выключен reload'ом */
+    synchronized void clearBlocks() {
+        blockedBy.clear();
+        notifyAll();
+    }
+
+    synchronized String dumpStats() {
+        return "§7Lanes:§f busy=" + busy.size() + " blocked=" + blockedBy.size();
+    }
+
+    private boolean mayRun(String key, String itemKey) {
+        String blocker = blockedBy.get(key);
+        return blocker == null || blocker.equals(itemKey);
+    }
+}
@@ -3,74 +3,120 @@ package su.primecorp.primerewards.core;
 import org.bukkit.Bukkit;
 import org.bukkit.command.ConsoleCommandSender;
 import org.bukkit.plugin.Plugin;
+import su.primecorp.primerewards.actions.Actions;
+import su.primecorp.primerewards.actions.RewardAction;
 import su.primecorp.primerewards.util.SafeConfig;
 import su.primecorp.primerewards.util.TemplateEngine;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Function;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 public final class RewardExecutor {
 
     private final Plugin plugin;
     private final Logger logger;
+    private final ExecutionBackend backend;
 
-    // sourceName -> (tier -> commands)
-    private final Map<String, Map<String, List<String>>> actionsBySource = new ConcurrentHashMap<>();
+    // sourceName -> (tier -> actions)
+    private final Map<String, Map<String, List<RewardAction>>> actionsBySource = new ConcurrentHashMap<>();
 
-    // простая защита от дублей в рамках одного процесса
+    // простая защита от дублей в рамках одного процесса: ключ остаётся только за полностью выполненной выдачей
     private final Set<String> executedKeys = ConcurrentHashMap.newKeySet();
 
     private static final long COMMAND_TIMEOUT_SECONDS = 15;
 
-    public RewardExecutor(Plugin plugin, SafeConfig ordersCfg, SafeConfig tgCfg, SafeConfig votesCfg) {
+    private volatile Pattern nicknamePattern;
+    private volatile boolean nativeActions;
+    private volatile boolean resolveEnabled;
+    private volatile boolean requireKnownPlayer;
+    private final NicknameResolver resolver = new NicknameResolver();
+
+    /** @param sourceCfgs имя табличного источника -> его конфиг (секция tiers); orders — в основном конфиге */
+    public RewardExecutor(Plugin plugin, SafeConfig ordersCfg, Map<String, SafeConfig> sourceCfgs) {
         this.plugin = plugin;
         this.logger = plugin.getLogger();
-        reload(ordersCfg, tgCfg, votesCfg);
+        this.backend = ExecutionBackend.detect(plugin);
+        logger.info("Execution backend: " + backend.name());
+        reload(ordersCfg, sourceCfgs);
     }
 
-    public void reload(SafeConfig ordersCfg, SafeConfig tgCfg, SafeConfig votesCfg) {
-        actionsBySource.clear();
-        actionsBySource.put("orders", loadActions(ordersCfg));
-        actionsBySource.put("telegram", loadActions(tgCfg));
-        actionsBySource.put("votes", loadActions(votesCfg));
+    public void reload(SafeConfig ordersCfg, Map<String, SafeConfig> sourceCfgs) {
+        String nick = ordersCfg.getString("deadLetter.nicknamePattern", "^[A-Za-z0-9_]{3,16}$");
+        this.nicknamePattern = (nick == null || nick.isBlank()) ? null : Pattern.compile(nick);
+        this.nativeActions = ordersCfg.getConfig().getBoolean("nativeActions", true);
+        this.resolveEnabled = ordersCfg.getConfig().getBoolean("resolve.enabled", true);
+        this.requireKnownPlayer = ordersCfg.getConfig().getBoolean("resolve.requireKnownPlayer", true);
+        resolver.configure(ordersCfg);
+
+        Map<String, Map<String, List<RewardAction>>> loaded = new HashMap<>();
+        loaded.put("orders", loadActions(ordersCfg));
+        sourceCfgs.forEach((name, cfg) -> loaded.put(name, loadActions(cfg)));
+        // без окна, в котором воркер увидел бы пустую карту
+        actionsBySource.keySet().retainAll(loaded.keySet());
+        actionsBySource.putAll(loaded);
         logger.info("RewardExecutor reloaded actions: " + actionsBySource);
     }
 
-    private Map<String, List<String>> loadActions(SafeConfig cfg) {
-        Map<String, List<String>> map = new HashMap<>();
+    private Map<String, List<RewardAction>> loadActions(SafeConfig cfg) {
+        Map<String, List<RewardAction>> map = new HashMap<>();
         if (cfg == null || cfg.getConfig() == null || !cfg.getConfig().isConfigurationSection("tiers")) {
             return map;
         }
         for (String tier : cfg.getConfig().getConfigurationSection("tiers").getKeys(false)) {
-            List<String> actions = cfg.getStringList("tiers." + tier);
-            map.put(tier.toLowerCase(Locale.ROOT), List.copyOf(actions));
+            List<?> entries = cfg.getConfig().getList("tiers." + tier);
+            if (entries == null) continue;
+            List<RewardAction> actions = new ArrayList<>(entries.size());
+            for (Object entry : entries) {
+                try {
+                    actions.add(Actions.parse(entry));
+                } catch (IllegalArgumentException e) {
+                    // пропущенное действие = неполная выдача, поэтому tier целиком остаётся без действий
+                    logger.warning("Tier '" + tier + "' disabled: " + e.getMessage());
+                    actions = null;
+                    break;
+                }
+            }
+            if (actions != null) map.put(tier.toLowerCase(Locale.ROOT), List.copyOf(actions));
         }
         return map;
     }
 
     /**
-     * sourceName — "orders", "telegram", "votes"
+     * sourceName — "orders" или имя табличного источника (telegram, votes, sources/*.yml)
+     *
+     * @throws PermanentRewardException нет действий для tier или невалидный ник — повтор не поможет
      */
     public void execute(RewardItem item, String sourceName) throws Exception {
         String src = sourceName == null ? "default" : sourceName.toLowerCase(Locale.ROOT);
-        Map<String, List<String>> sourceMap = actionsBySource.getOrDefault(src, Collections.emptyMap());
+        Map<String, List<RewardAction>> sourceMap = actionsBySource.getOrDefault(src, Collections.emptyMap());
 
         String tierKey = item.tier == null ? "" : item.tier.toLowerCase(Locale.ROOT);
-        List<String> actions = sourceMap.get(tierKey);
+        List<RewardAction> actions = sourceMap.get(tierKey);
         if (actions == null || actions.isEmpty()) {
-            throw new IllegalStateException("No actions configured for source=" + src + " tier=" + tierKey);
+            throw new PermanentRewardException("No actions configured for source=" + src + " tier=" + tierKey);
+        }
+        Pattern nickPattern = nicknamePattern;
+        if (item.nickname == null || (nickPattern != null && !nickPattern.matcher(item.nickname).matches())) {
+            throw new PermanentRewardException("Invalid nickname: " + item.nickname);
+        }
+        // неизвестный серверу ник — неудача с backoff здесь же, без команд и без прыжка на поток сервера
+        UUID uuid = resolveEnabled ? resolver.resolve(item.nickname) : null;
+        if (uuid == null && resolveEnabled && requireKnownPlayer) {
+            throw new RuntimeException("Unknown player (never joined): " + item.nickname);
         }
 
-        Map<String, String> ctx = new HashMap<>();
-        ctx.put("id", String.valueOf(item.id));
-        ctx.put("order_id", item.orderId);
-        ctx.put("nickname", item.nickname);
-        ctx.put("tier", item.tier);
-        ctx.put("amount", String.valueOf(item.amount));
-        ctx.put("currency", item.currency == null ? "" : item.currency);
-        if (item.attrs != null) {
-            item.attrs.forEach((k, v) -> ctx.putIfAbsent(k, v == null ? "" : String.valueOf(v)));
+        String uuidStr = uuid == null ? null : uuid.toString();
+        // проверка до первого действия: иначе tier выдался бы наполовину и остаток упал бы на ${uuid}
+        if (uuidStr == null) {
+            for (RewardAction action : actions) {
+                String raw = action.fallbackCommand();
+                if (raw != null && raw.contains("${uuid}")) {
+                    throw new RuntimeException("UUID is not known for " + item.nickname + ": " + raw);
+                }
+            }
         }
 
         String idempotencyKey = src + "#" + item.id;
@@ -78,26 +124,92 @@ public final class RewardExecutor {
             logger.fine("Skip duplicate execute in-process: " + idempotencyKey);
             return;
         }
+        // неудачная попытка снимает ключ — повтор после backoff должен выполнить действия, а не пропустить их
+        boolean completed = false;
+        try {
+            runActions(item, src, actions, uuid, uuidStr);
+            completed = true;
+        } finally {
+            if (!completed) executedKeys.remove(idempotencyKey);
+        }
+    }
 
+    private void runActions(RewardItem item, String src, List<RewardAction> actions, UUID uuid, String uuidStr)
+            throws Exception {
         ConsoleCommandSender console = Bukkit.getServer().getConsoleSender();
-        for (String raw : actions) {
-            String cmd = TemplateEngine.apply(raw, ctx);
-            boolean ok = runOnMainThread(() -> Bukkit.dispatchCommand(console, cmd));
+        Function<String, String> placeholders = key -> "uuid".equals(key) ? uuidStr : item.placeholder(key);
+        for (RewardAction action : actions) {
+            DeliveryEvents.Action ev = new DeliveryEvents.Action();
+            ev.begin();
+            // типизированные действия — через API сервиса в этом же потоке, без прыжка на главный
+            if (nativeActions && action.tryRunNative(item, uuid, placeholders)) {
+                commitAction(ev, src, item, action.toString(), true, true);
+                continue;
+            }
+
+            String raw = action.fallbackCommand();
+            if (raw == null) throw new RuntimeException("Action unavailable: " + action);
+            String cmd = TemplateEngine.apply(raw, placeholders);
+            // команда от консоли — всегда глобально (Folia) / главный поток (Paper): плагины прав и экономики
+            // трогают глобальное состояние, и на потоке региона игрока упёрлись бы в проверки потоков
+            boolean ok = false;
+            try {
+                ok = runOnServer(() -> Bukkit.dispatchCommand(console, cmd));
+            } finally {
+                commitAction(ev, src, item, cmd, false, ok);
+            }
             if (!ok) {
                 throw new RuntimeException("Command failed to dispatch: " + cmd);
             }
         }
     }
 
-    private <T> T runOnMainThread(Callable<T> task) throws Exception {
-        if (Bukkit.isPrimaryThread()) {
-            return task.call();
-        }
+    private static void commitAction(DeliveryEvents.Action ev, String src, RewardItem item, String action,
+                                     boolean nativeCall, boolean ok) {
+        ev.end();
+        if (!ev.shouldCommit()) return;
+        ev.source = src;
+        ev.itemId = item.id;
+        ev.action = action;
+        ev.nativeCall = nativeCall;
+        ev.ok = ok;
+        ev.commit();
+    }
+
+    public String resolverStats() {
+        return resolver.dumpStats();
+    }
+
+    public ExecutionBackend backend() {
+        return backend;
+    }
+
+    private <T> T runOnServer(Callable<T> task) throws Exception {
+        DeliveryEvents.ServerHop ev = new DeliveryEvents.ServerHop();
+        ev.begin();
+        long queuedAt = System.nanoTime();
+        long[] ran = new long[2]; // начало/конец на потоке сервера; видимость — через future.get
         try {
-            return Bukkit.getScheduler().callSyncMethod(plugin, task)
-                    .get(COMMAND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return backend.call(() -> {
+                ran[0] = System.nanoTime();
+                try {
+                    return task.call();
+                } finally {
+                    ran[1] = System.nanoTime();
+                }
+            }).get(COMMAND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
         } catch (TimeoutException te) {
-            throw new RuntimeException("Command execution timeout on main thread", te);
+            throw new RuntimeException("Command execution timeout on server thread", te);
+        } catch (ExecutionException ee) {
+            throw ee.getCause() instanceof Exception e ? e : ee;
+        } finally {
+            ev.end();
+            if (ev.shouldCommit()) {
+                ev.backend = backend.name();
+                ev.waitNanos = ran[0] != 0 ? ran[0] - queuedAt : System.nanoTime() - queuedAt;
+                ev.runNanos = ran[1] != 0 ? ran[1] - ran[0] : 0L;
+                ev.commit();
+            }
         }
     }
 }
@@ -1,6 +1,5 @@
 package su.primecorp.primerewards.core;
 
-import java.util.Map;
 import java.util.Objects;
 
 public final class RewardItem {
@@ -11,22 +10,52 @@ public final class RewardItem {
     public final String tier;           // ключ тарифа
     public final double amount;         // числовая сумма (может пригодиться)
     public final String currency;       // валюта (опционально)
+    public final long orderedAt;        // момент оплаты/голоса/подписки, epoch ms (0 — неизвестен), для замера задержки
 
-    // Дополнительные атрибуты для плейсхолдеров и логов
-    public final Map<String, Object> attrs;
+    // Дополнительные атрибуты для плейсхолдеров и логов: слоты по схеме источника, без Map на строку
+    private final ItemSchema schema;
+    private final Object[] values;
 
-    public RewardItem(long id, String orderId, String nickname, String tier, double amount, String currency, Map<String, Object> attrs) {
+    public RewardItem(long id, String orderId, String nickname, String tier, double amount, String currency,
+                      long orderedAt, ItemSchema schema, Object[] values) {
         this.id = id;
         this.orderId = orderId;
         this.nickname = nickname;
         this.tier = tier;
         this.amount = amount;
         this.currency = currency;
-        this.attrs = attrs;
+        this.orderedAt = orderedAt;
+        this.schema = schema == null ? ItemSchema.EMPTY : schema;
+        this.values = values;
+        if (values != null && values.length != this.schema.size()) {
+            throw new IllegalArgumentException("values/schema size mismatch");
+        }
+    }
+
+    public ItemSchema schema() {
+        return schema;
+    }
+
+    public Object getAttr(String key) {
+        int slot = schema.slot(key);
+        return slot < 0 || values == null ? null : values[slot];
     }
 
     public String getAttrAsString(String key) {
-        Object v = attrs != null ? attrs.get(key) : null;
+        Object v = getAttr(key);
         return v == null ? "" : Objects.toString(v);
     }
+
+    /** значение плейсхолдера: сначала основные поля, затем атрибуты источника; null — ключ неизвестен */
+    public String placeholder(String key) {
+        return switch (key) {
+            case "id" -> String.valueOf(id);
+            case "order_id" -> orderId == null ? "" : orderId;
+            case "nickname" -> nickname == null ? "" : nickname;
+            case "tier" -> tier == null ? "" : tier;
+            case "amount" -> String.valueOf(amount);
+            case "currency" -> currency == null ? "" : currency;
+            default -> schema.slot(key) < 0 ? null : getAttrAsString(key);
+        };
+    }
 }
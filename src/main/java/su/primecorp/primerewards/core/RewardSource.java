@@ -1,6 +1,8 @@
 package su.primecorp.primerewards.core;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.List;
 
 public interface RewardSource {
@@ -12,4 +14,16 @@ public interface RewardSource {
 
     /** отметить неуспех (без delivered_at), сохранить причину (<=255) */
     boolean markFailed(Connection txConn, long id, String reason) throws Exception;
+
+    /**
+     * Обнулить счётчик попыток (delivery_attempts) невыданных строк — при возврате из карантина,
+     * иначе строка сразу снова упрётся в deadLetter.maxAttempts. Источник без счётчика ничего не делает.
+     */
+    void resetAttempts(Connection txConn, List<Long> ids) throws Exception;
+
+    /** SELECT готовых строк в раскладке {@link PendingSql#COLUMNS}, без LIMIT (объединённая выборка, догонка, SLO) */
+    String pendingSelectSql();
+
+    /** разобрать текущую строку выборки pendingSelectSql(); перед раскладкой могут стоять служебные колонки */
+    RewardItem mapRow(ResultSet rs) throws SQLException;
 }
@@ -0,0 +1,111 @@
+package su.primecorp.primerewards.core;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Локальный буфер источника между выборкой и воркерами.
+ * Строки, уже лежащие в буфере или находящиеся в работе, учтены в tracked и при повторной выборке пропускаются —
+ * ничего не выбрасывается и не перечитывается ради того, чтобы снова выбросить.
+ * Строки, придержанные блокировкой ника (held), лежат в буфере, но не занимают его ёмкость:
+ * иначе несколько покупок одного игрока перекрыли бы выборку всем остальным.
+ */
+final class SourcePipeline {
+
+    final RewardSource source;
+
+    private final ArrayDeque<RewardItem> buffer = new ArrayDeque<>();
+    private final Map<Long, Long> tracked = new HashMap<>(); // в буфере или в работе: id -> когда принята, мс
+    private volatile boolean more; // последняя выборка упёрлась в LIMIT — в БД есть ещё строки
+
+    SourcePipeline(RewardSource source) {
+        this.source = source;
+    }
+
+    synchronized int buffered() {
+        return buffer.size();
+    }
+
+    /** строки буфера, которые можно взять в работу (не придержанные блокировкой ника) */
+    synchronized int ready(Predicate<RewardItem> held) {
+        int n = 0;
+        for (RewardItem item : buffer) {
+            if (!held.test(item)) n++;
+        }
+        return n;
+    }
+
+    /** сколько строк запросить у БД, чтобы после пропуска уже учтённых буфер заполнился до capacity */
+    synchronized int fetchLimit(int capacity, Predicate<RewardItem> held) {
+        int free = capacity - ready(held);
+        return free <= 0 ? 0 : free + tracked.size();
+    }
+
+    /**
+     * Добавить свежевыбранные строки в порядке выборки, пропуская учтённые и не готовые (backoff).
+     * Придержанные строки добавляются сверх capacity, чтобы не перечитывать их каждой выборкой.
+     * @return число добавленных строк, доступных для раздачи
+     */
+    synchronized int offer(List<RewardItem> rows, Predicate<RewardItem> due, int capacity, Predicate<RewardItem> held) {
+        int ready = ready(held);
+        int added = 0;
+        for (RewardItem item : rows) {
+            if (ready >= capacity) break;
+            if (tracked.containsKey(item.id) || !due.test(item)) continue;
+            tracked.put(item.id, System.currentTimeMillis());
+            buffer.addLast(item);
+            if (!held.test(item)) {
+                ready++;
+                added++;
+            }
+        }
+        return added;
+    }
+
+    void setMore(boolean more) {
+        this.more = more;
+    }
+
+    boolean hasMore() {
+        return more;
+    }
+
+    /**
+     * Первая по порядку буфера строка, которую принял take (например, ник свободен); null — таких нет.
+     * Строка остаётся учтённой до {@link #done(long)}.
+     */
+    synchronized RewardItem poll(Predicate<RewardItem> take) {
+        for (Iterator<RewardItem> it = buffer.iterator(); it.hasNext(); ) {
+            RewardItem item = it.next();
+            if (take.test(item)) {
+                it.remove();
+                return item;
+            }
+        }
+        return null;
+    }
+
+    /** для догонки в обход буфера: false — строка уже в буфере или в работе */
+    synchronized boolean track(long id) {
+        return tracked.putIfAbsent(id, System.currentTimeMillis()) == null;
+    }
+
+    /** когда строка принята в буфер или догонкой; для неучтённой — сейчас */
+    synchronized long acceptedAt(long id) {
+        Long at = tracked.get(id);
+        return at != null ? at : System.currentTimeMillis();
+    }
+
+    /** в буфере или в работе */
+    synchronized boolean isTracked(long id) {
+        return tracked.containsKey(id);
+    }
+
+    synchronized void done(long id) {
+        tracked.remove(id);
+    }
+}
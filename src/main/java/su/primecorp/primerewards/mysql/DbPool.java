@@ -7,10 +7,28 @@ import su.primecorp.primerewards.util.SafeConfig;
 import java.sql.Connection;
 import java.sql.SQLException;
 
+/**
+ * Пул соединений создаётся лениво через {@link #connect()} (вне главного потока):
+ * Hikari при старте делает fail-fast подключение, и медленная БД не должна задерживать загрузку сервера.
+ * До подключения {@link #getConnection()} бросает SQLException — вызывающие уже умеют переживать ошибки БД.
+ */
 public final class DbPool implements AutoCloseable {
-    private final HikariDataSource ds;
+    private final SafeConfig cfg;
+    private volatile HikariDataSource ds;
+    private volatile boolean closed;
 
     public DbPool(SafeConfig cfg) {
+        this.cfg = cfg;
+    }
+
+    public boolean isReady() {
+        return ds != null;
+    }
+
+    /** блокирует до первого соединения (до mysql.connectionTimeoutMs); при ошибке пул не создаётся */
+    public synchronized void connect() {
+        if (ds != null) return;
+        if (closed) throw new IllegalStateException("DB pool is closed");
         HikariConfig hc = new HikariConfig();
         hc.setJdbcUrl(cfg.getString("mysql.jdbcUrl"));
         hc.setUsername(cfg.getString("mysql.username"));
@@ -24,11 +42,14 @@ public final class DbPool implements AutoCloseable {
     }
 
     public Connection getConnection() throws SQLException {
-        return ds.getConnection();
+        HikariDataSource d = ds;
+        if (d == null) throw new SQLException("DB pool is not connected yet");
+        return d.getConnection();
     }
 
     @Override
-    public void close() {
-        ds.close();
+    public synchronized void close() {
+        closed = true;
+        if (ds != null) ds.close();
     }
 }
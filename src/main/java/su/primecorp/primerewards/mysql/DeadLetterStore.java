@@ -0,0 +1,132 @@
+package su.primecorp.primerewards.mysql;
+
+import su.primecorp.primerewards.util.SafeConfig;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Карантин для безнадёжных выдач (неизвестный tier, битый ник, исчерпан лимит попыток).
+ * Строки источников не меняются: источник исключает карантин из выборки через NOT EXISTS по (source, item_id).
+ */
+public final class DeadLetterStore {
+
+    private final DbPool db;
+    private final String table;
+    private volatile boolean ready; // таблица проверена: до этого выборки идут без NOT EXISTS, карантин не пишется
+
+    public DeadLetterStore(DbPool db, SafeConfig cfg) {
+        this.db = db;
+        this.table = cfg.getString("deadLetter.table", "external_data.primerewards_deadletter");
+    }
+
+    public String table() {
+        return table;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /** без прав на DDL годится и заранее созданная таблица: тогда достаточно, что она читается */
+    public void ensureSchema() throws SQLException {
+        String sql = "CREATE TABLE IF NOT EXISTS " + table + " (" +
+                "source VARCHAR(64) NOT NULL, " +
+                "item_id BIGINT NOT NULL, " +
+                "order_id VARCHAR(128) NULL, " +
+                "nickname VARCHAR(64) NULL, " +
+                "tier VARCHAR(64) NULL, " +
+                "attempts INT NOT NULL DEFAULT 0, " +
+                "reason VARCHAR(255) NULL, " +
+                "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+                "PRIMARY KEY (source, item_id))";
+        try (Connection c = db.getConnection();
+             Statement st = c.createStatement()) {
+            try {
+                st.execute(sql);
+            } catch (SQLException e) {
+                try {
+                    st.executeQuery("SELECT 1 FROM " + table + " LIMIT 0").close();
+                } catch (SQLException probe) {
+                    throw e;
+                }
+            }
+        }
+        ready = true;
+    }
+
+    /**
+     * Условие для WHERE выборки источника; подставлять только при {@link #isReady()}.
+     * @param sourceTable таблица источника как в FROM (можно с БД: external_data.orders)
+     */
+    public String excludeClause(String source, String sourceTable, String idColumn) {
+        return "NOT EXISTS (SELECT 1 FROM " + table + " dl WHERE dl.source = '" + source.replace("'", "''") +
+                "' AND dl.item_id = " + sourceTable + "." + idColumn + ")";
+    }
+
+    /** в транзакции вызывающего (вместе с markFailed) */
+    public boolean quarantine(Connection txConn, String source, long id, String orderId, String nickname,
+                              String tier, int attempts, String reason) throws SQLException {
+        String sql = "INSERT INTO " + table + " (source, item_id, order_id, nickname, tier, attempts, reason) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?) " +
+                "ON DUPLICATE KEY UPDATE attempts = VALUES(attempts), reason = VALUES(reason), created_at = NOW()";
+        try (PreparedStatement ps = txConn.prepareStatement(sql)) {
+            ps.setString(1, source);
+            ps.setLong(2, id);
+            ps.setString(3, orderId);
+            ps.setString(4, nickname);
+            ps.setString(5, tier);
+            ps.setInt(6, attempts);
+            ps.setString(7, reason);
+            return ps.executeUpdate() >= 1;
+        }
+    }
+
+    /** последние записи карантина, уже отформатированные для чата; source == null — все источники */
+    public List<String> list(String source, int limit) throws SQLException {
+        String sql = "SELECT source, item_id, order_id, nickname, tier, attempts, reason, created_at FROM " + table +
+                (source == null ? "" : " WHERE source = ?") +
+                " ORDER BY created_at DESC LIMIT ?";
+        List<String> out = new ArrayList<>();
+        try (Connection c = db.getConnection();
+             PreparedStatement ps = c.prepareStatement(sql)) {
+            int idx = 1;
+            if (source != null) ps.setString(idx++, source);
+            ps.setInt(idx, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    out.add("§7" + rs.getString("source") + "#" + rs.getLong("item_id") +
+                            " §f" + rs.getString("nickname") + " §7tier=§f" + rs.getString("tier") +
+                            " §7attempts=§f" + rs.getInt("attempts") +
+                            " §7at=§f" + rs.getTimestamp("created_at") +
+                            " §c" + rs.getString("reason"));
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Вернуть в очередь выдачи, в транзакции вызывающего (вместе со сбросом попыток в источнике);
+     * id == null — все записи источника. Возвращает id освобождённых строк.
+     */
+    public List<Long> release(Connection txConn, String source, Long id) throws SQLException {
+        String where = " WHERE source = ?" + (id == null ? "" : " AND item_id = ?");
+        List<Long> ids = new ArrayList<>();
+        try (PreparedStatement ps = txConn.prepareStatement("SELECT item_id FROM " + table + where + " FOR UPDATE")) {
+            ps.setString(1, source);
+            if (id != null) ps.setLong(2, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) ids.add(rs.getLong(1));
+            }
+        }
+        if (ids.isEmpty()) return ids;
+        try (PreparedStatement ps = txConn.prepareStatement("DELETE FROM " + table + where)) {
+            ps.setString(1, source);
+            if (id != null) ps.setLong(2, id);
+            ps.executeUpdate();
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,162 @@
+package su.primecorp.primerewards.mysql;
+
+import su.primecorp.primerewards.util.SafeConfig;
+
+import java.sql.*;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Суточная свёртка выдач (день × источник × tier) для отчётов: дашборды читают сотни строк
+ * вместо агрегатов по таблицам источников. Счётчики копятся в памяти после фиксации отметок
+ * и сбрасываются одной пачкой upsert'ов по таймеру — вне транзакций выдачи, без горячей строки под их блокировками.
+ * День — локальная дата сервера плагина; при падении процесса теряются только несброшенные счётчики.
+ */
+public final class DeliveryRollupStore {
+
+    private record Key(LocalDate day, String source, String tier) {}
+
+    private static final Comparator<Key> KEY_ORDER = Comparator.comparing(Key::day)
+            .thenComparing(Key::source).thenComparing(Key::tier);
+
+    private static final class Counters {
+        int delivered;
+        int failed;
+        double amount;
+        long latencyMsSum;
+        int latencyN;
+
+        void add(Counters o) {
+            delivered += o.delivered;
+            failed += o.failed;
+            amount += o.amount;
+            latencyMsSum += o.latencyMsSum;
+            latencyN += o.latencyN;
+        }
+    }
+
+    private final DbPool db;
+    private final String table;
+    private Map<Key, Counters> pending = new HashMap<>(); // под this
+
+    public DeliveryRollupStore(DbPool db, SafeConfig cfg) {
+        this.db = db;
+        this.table = cfg.getString("rollup.table", "external_data.primerewards_daily");
+    }
+
+    public String table() {
+        return table;
+    }
+
+    public void ensureSchema() throws SQLException {
+        String sql = "CREATE TABLE IF NOT EXISTS " + table + " (" +
+                "day DATE NOT NULL, " +
+                "source VARCHAR(64) NOT NULL, " +
+                "tier VARCHAR(64) NOT NULL, " +
+                "delivered INT NOT NULL DEFAULT 0, " +
+                "failed INT NOT NULL DEFAULT 0, " +
+                "amount_sum DECIMAL(18,2) NOT NULL DEFAULT 0, " +
+                "latency_ms_sum BIGINT NOT NULL DEFAULT 0, " +
+                "latency_n INT NOT NULL DEFAULT 0, " +
+                "PRIMARY KEY (day, source, tier))";
+        try (Connection c = db.getConnection();
+             Statement st = c.createStatement()) {
+            st.execute(sql);
+        }
+    }
+
+    /** после коммита markDelivered; latencyMs < 0 — время заказа неизвестно */
+    public synchronized void recordDelivered(String source, String tier, double amount, long latencyMs) {
+        Counters c = counters(source, tier);
+        c.delivered++;
+        c.amount += amount;
+        if (latencyMs >= 0) {
+            c.latencyMsSum += latencyMs;
+            c.latencyN++;
+        }
+    }
+
+    /** после коммита markFailed: считаются неудачные попытки */
+    public synchronized void recordFailed(String source, String tier) {
+        counters(source, tier).failed++;
+    }
+
+    private Counters counters(String source, String tier) {
+        return pending.computeIfAbsent(new Key(LocalDate.now(), source, tier == null ? "" : tier), k -> new Counters());
+    }
+
+    /**
+     * Одна транзакция на все накопленные ключи; строки — в постоянном порядке, чтобы параллельные
+     * сбросы (несколько серверов на одну БД) брали блокировки одинаково. При ошибке счётчики возвращаются в память.
+     *
+     * @return число обновлённых ключей
+     */
+    public int flush() throws SQLException {
+        Map<Key, Counters> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) return 0;
+            batch = pending;
+            pending = new HashMap<>();
+        }
+        List<Key> keys = new ArrayList<>(batch.keySet());
+        keys.sort(KEY_ORDER);
+        String sql = "INSERT INTO " + table +
+                " (day, source, tier, delivered, failed, amount_sum, latency_ms_sum, latency_n) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?) " +
+                "ON DUPLICATE KEY UPDATE delivered = delivered + VALUES(delivered), failed = failed + VALUES(failed), " +
+                "amount_sum = amount_sum + VALUES(amount_sum), latency_ms_sum = latency_ms_sum + VALUES(latency_ms_sum), " +
+                "latency_n = latency_n + VALUES(latency_n)";
+        try (Connection c = db.getConnection()) {
+            c.setAutoCommit(false);
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                for (Key k : keys) {
+                    Counters v = batch.get(k);
+                    ps.setDate(1, Date.valueOf(k.day()));
+                    ps.setString(2, k.source());
+                    ps.setString(3, k.tier());
+                    ps.setInt(4, v.delivered);
+                    ps.setInt(5, v.failed);
+                    ps.setDouble(6, v.amount);
+                    ps.setLong(7, v.latencyMsSum);
+                    ps.setInt(8, v.latencyN);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                c.commit();
+            } catch (SQLException e) {
+                try { c.rollback(); } catch (SQLException ignore) {}
+                throw e;
+            }
+        } catch (SQLException e) {
+            synchronized (this) {
+                batch.forEach((k, v) -> pending.computeIfAbsent(k, x -> new Counters()).add(v));
+            }
+            throw e;
+        }
+        return keys.size();
+    }
+
+    /** сводка за последние days дней по источникам, уже отформатированная для чата */
+    public List<String> daily(int days) throws SQLException {
+        String sql = "SELECT day, source, SUM(delivered) AS delivered, SUM(failed) AS failed, " +
+                "SUM(amount_sum) AS amount, SUM(latency_ms_sum) AS lat_sum, SUM(latency_n) AS lat_n FROM " + table +
+                " WHERE day > CURRENT_DATE - INTERVAL ? DAY GROUP BY day, source ORDER BY day DESC, source";
+        List<String> out = new ArrayList<>();
+        try (Connection c = db.getConnection();
+             PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setInt(1, days);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    long latN = rs.getLong("lat_n");
+                    out.add("§7" + rs.getDate("day") + " §f" + rs.getString("source") +
+                            " §adelivered=§f" + rs.getLong("delivered") +
+                            " §cfailed=§f" + rs.getLong("failed") +
+                            " §7amount=§f" + rs.getBigDecimal("amount") +
+                            " §7avgLag=§f" + (latN > 0 ? (rs.getLong("lat_sum") / latN) + "ms" : "-"));
+                }
+            }
+        }
+        return out;
+    }
+}
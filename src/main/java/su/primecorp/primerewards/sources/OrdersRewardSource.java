@@ -1,8 +1,11 @@
 package su.primecorp.primerewards.sources;
 
+import su.primecorp.primerewards.core.ItemSchema;
+import su.primecorp.primerewards.core.PendingSql;
 import su.primecorp.primerewards.core.RewardItem;
 import su.primecorp.primerewards.core.RewardSource;
 import su.primecorp.primerewards.mysql.DbPool;
+import su.primecorp.primerewards.mysql.DeadLetterStore;
 import su.primecorp.primerewards.util.SafeConfig;
 
 import java.sql.*;
@@ -12,51 +15,84 @@ public final class OrdersRewardSource implements RewardSource {
     private final DbPool db;
     private final java.util.logging.Logger log;
 
-    public OrdersRewardSource(DbPool db, SafeConfig cfg, java.util.logging.Logger log) {
+    private static final ItemSchema SCHEMA = ItemSchema.of("paid_at", "unitpay_id", "is_test", "attempts", "grant_qty");
+
+    private static final Map<String, String> COLUMNS = Map.ofEntries(
+            Map.entry("id", "id"),
+            Map.entry("order_id", "order_id"),
+            Map.entry("nickname", "nickname"),
+            Map.entry("tier", "tier"),
+            Map.entry("amount", "amount"),
+            Map.entry("currency", "currency"),
+            Map.entry("attempts", "delivery_attempts"),
+            Map.entry("ordered_at", "paid_at"),
+            Map.entry("unitpay_id", "unitpay_id"),
+            Map.entry("is_test", "is_test"),
+            Map.entry("grant_qty", "grant_qty"));
+
+    private final DeadLetterStore deadLetters;
+    private final String selectSql;       // без карантина в условии
+    private final String selectLiveSql;   // с исключением карантина; null — карантин выключен
+
+    /** @param deadLetters null — карантин выключен */
+    public OrdersRewardSource(DbPool db, SafeConfig cfg, java.util.logging.Logger log, DeadLetterStore deadLetters) {
         this.db = db;
         this.log = log;
+        this.deadLetters = deadLetters;
+
+        String where = "status='paid' AND delivered_at IS NULL";
+        this.selectSql = PendingSql.select(COLUMNS, "external_data.orders", where, "paid_at ASC");
+        this.selectLiveSql = deadLetters == null ? null : PendingSql.select(COLUMNS, "external_data.orders",
+                where + " AND " + deadLetters.excludeClause(name(), "external_data.orders", "id"), "paid_at ASC");
     }
 
     @Override
     public String name() { return "orders"; }
 
+    @Override
+    public String pendingSelectSql() {
+        // таблица карантина ещё не проверена или недоступна — опрос идёт без неё
+        return selectLiveSql != null && deadLetters.isReady() ? selectLiveSql : selectSql;
+    }
+
     @Override
     public List<RewardItem> fetchPending(int batchSize) throws Exception {
-        String sql =
-                "SELECT id, order_id, nickname, tier, grant_qty, amount, currency, status, delivered_at, delivery_attempts, paid_at, unitpay_id, is_test " +
-                        "FROM external_data.orders " +
-                        "WHERE status='paid' AND delivered_at IS NULL " +
-                        "ORDER BY paid_at ASC " +
-                        "LIMIT ?";
         List<RewardItem> list = new ArrayList<>();
         try (Connection c = db.getConnection();
-             PreparedStatement ps = c.prepareStatement(sql)) {
+             PreparedStatement ps = c.prepareStatement(pendingSelectSql() + " LIMIT ?")) {
             ps.setInt(1, batchSize);
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
-                    long id = rs.getLong("id");
-                    String orderId = rs.getString("order_id");
-                    String nick = rs.getString("nickname");
-                    String tier = rs.getString("tier");
-                    double amount = rs.getDouble("amount");
-                    String currency = safe(rs.getString("currency"));
-
-                    Map<String, Object> attrs = new HashMap<>();
-                    attrs.put("paid_at", safe(rs.getTimestamp("paid_at")));
-                    attrs.put("unitpay_id", safe(rs.getString("unitpay_id")));
-                    attrs.put("is_test", rs.getObject("is_test"));
-                    attrs.put("attempts", rs.getInt("delivery_attempts"));
-                    Integer grantQty = rs.getObject("grant_qty", Integer.class);
-                    attrs.put("grant_qty", grantQty == null ? 0 : grantQty);
-
-
-                    list.add(new RewardItem(id, orderId, nick, tier, amount, currency, attrs));
+                    list.add(mapRow(rs));
                 }
             }
         }
         return list;
     }
 
+    @Override
+    public RewardItem mapRow(ResultSet rs) throws SQLException {
+        long id = rs.getLong("id");
+        String orderId = rs.getString("order_id");
+        String nick = rs.getString("nickname");
+        String tier = rs.getString("tier");
+        double amount = rs.getDouble("amount");
+        String currency = safe(rs.getString("currency"));
+
+        Timestamp paidAt = rs.getTimestamp("ordered_at");
+        Integer grantQty = rs.getObject("grant_qty", Integer.class);
+        Object[] values = {
+                paidAt,                         // в строку только при подстановке
+                rs.getString("unitpay_id"),
+                rs.getObject("is_test"),
+                rs.getInt("attempts"),
+                grantQty == null ? 0 : grantQty
+        };
+
+        return new RewardItem(id, orderId, nick, tier, amount, currency,
+                paidAt == null ? 0L : paidAt.getTime(), SCHEMA, values);
+    }
+
     @Override
     public boolean markDelivered(Connection txConn, long id) throws Exception {
         String sql =
@@ -84,6 +120,18 @@ public final class OrdersRewardSource implements RewardSource {
         }
     }
 
+    @Override
+    public void resetAttempts(Connection txConn, List<Long> ids) throws Exception {
+        String sql = "UPDATE external_data.orders SET delivery_attempts = 0 WHERE id = ? AND delivered_at IS NULL";
+        try (PreparedStatement ps = txConn.prepareStatement(sql)) {
+            for (long id : ids) {
+                ps.setLong(1, id);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
     private static String safe(Object o) {
         return o == null ? "" : String.valueOf(o);
     }
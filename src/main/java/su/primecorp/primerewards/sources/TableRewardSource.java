@@ -0,0 +1,237 @@
+package su.primecorp.primerewards.sources;
+
+import su.primecorp.primerewards.core.ItemSchema;
+import su.primecorp.primerewards.core.PendingSql;
+import su.primecorp.primerewards.core.RewardItem;
+import su.primecorp.primerewards.core.RewardSource;
+import su.primecorp.primerewards.mysql.DbPool;
+import su.primecorp.primerewards.mysql.DeadLetterStore;
+import su.primecorp.primerewards.util.SafeConfig;
+
+import java.sql.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Источник «таблица с колонкой delivered_at», целиком описанный конфигом (sources/*.yml, tg_rewards.yml, votes_rewards.yml).
+ * Раскладка колонок компилируется один раз: строка разбирается по индексам {@link PendingSql#COLUMNS}
+ * типизированными экстракторами, без поиска колонок по имени.
+ */
+public final class TableRewardSource implements RewardSource {
+
+    /** значения по умолчанию прежних tg_rewards.yml / votes_rewards.yml — старые файлы читаются как раньше */
+    public static final Map<String, String> TELEGRAM_DEFAULTS = Map.of(
+            "table.name", "external_data.tg_subscriptions",
+            "table.readyWhere", "is_subscribed=1 AND delivered_at IS NULL",
+            "defaultTier", "tg_join",
+            "orderIdPrefix", "tg#",
+            "table.columns.ordered_at", "subscribed_at");
+
+    public static final Map<String, String> VOTES_DEFAULTS = Map.of(
+            "table.name", "external_data.vote_hotmc",
+            "table.orderBy", "voted_at ASC, id ASC",
+            "defaultTier", "hotmc_vote",
+            "orderIdPrefix", "vote#",
+            "table.columns.delivery_attempts", "delivery_attempts",
+            "table.columns.delivery_note", "delivery_note",
+            "table.columns.ordered_at", "voted_at");
+
+    private static final Pattern NAME = Pattern.compile("[a-z0-9_-]{1,32}");
+
+    private static final ItemSchema SCHEMA = ItemSchema.of("attempts", "ordered_at");
+
+    private static final int ID = PendingSql.index("id");
+    private static final int ORDER_ID = PendingSql.index("order_id");
+    private static final int NICKNAME = PendingSql.index("nickname");
+    private static final int TIER = PendingSql.index("tier");
+    private static final int AMOUNT = PendingSql.index("amount");
+    private static final int CURRENCY = PendingSql.index("currency");
+    private static final int ATTEMPTS = PendingSql.index("attempts");
+    private static final int ORDERED_AT = PendingSql.index("ordered_at");
+
+    /** значение атрибута по абсолютному номеру колонки */
+    @FunctionalInterface
+    private interface Extractor {
+        Object get(ResultSet rs, int col) throws SQLException;
+    }
+
+    private final DbPool db;
+    private final String name;
+    private final String tableName;
+    private final String defaultTier;
+    private final String orderIdPrefix; // null — order_id берётся из колонки
+    private final String idCol, deliveredAtCol, attemptsCol, noteCol;
+
+    private final DeadLetterStore deadLetters;
+    private final String selectSql;       // без карантина в условии
+    private final String selectLiveSql;   // с исключением карантина; null — карантин выключен
+    private final String markDeliveredSql;
+    private final String markFailedSql;
+    private final boolean failedHasNote;
+
+    private final int[] attrCols;           // слот SCHEMA -> номер колонки в раскладке
+    private final Extractor[] attrExtractors;
+
+    /**
+     * @param name        имя источника: ключ в карантине, свёртке и логах (см. {@link #sanitizeName})
+     * @param defaults    значения по умолчанию для ключей cfg (путь -> значение); для новых файлов пусто
+     * @param deadLetters null — карантин выключен
+     */
+    public TableRewardSource(String name, DbPool db, SafeConfig cfg, Map<String, String> defaults,
+                             DeadLetterStore deadLetters) {
+        this.db = db;
+        this.name = name;
+
+        this.tableName = required(cfg, defaults, "table.name");
+        String readyWhere = opt(cfg, defaults, "table.readyWhere", "delivered_at IS NULL");
+        String orderBy = opt(cfg, defaults, "table.orderBy", "id ASC");
+        this.defaultTier = opt(cfg, defaults, "defaultTier", name);
+
+        this.idCol = opt(cfg, defaults, "table.columns.id", "id");
+        this.deliveredAtCol = opt(cfg, defaults, "table.columns.delivered_at", "delivered_at");
+        this.attemptsCol = opt(cfg, defaults, "table.columns.delivery_attempts", null);
+        this.noteCol = opt(cfg, defaults, "table.columns.delivery_note", null);
+        String orderIdCol = opt(cfg, defaults, "table.columns.order_id", null);
+        this.orderIdPrefix = orderIdCol != null ? null : opt(cfg, defaults, "orderIdPrefix", name + "#");
+
+        Map<String, String> exprs = new HashMap<>();
+        exprs.put("id", idCol);
+        exprs.put("order_id", orderIdCol);
+        exprs.put("nickname", opt(cfg, defaults, "table.columns.nickname", "nickname"));
+        exprs.put("tier", opt(cfg, defaults, "table.columns.tier", null));
+        exprs.put("amount", opt(cfg, defaults, "table.columns.amount", null));
+        exprs.put("currency", opt(cfg, defaults, "table.columns.currency", null));
+        exprs.put("attempts", attemptsCol);
+        exprs.put("ordered_at", opt(cfg, defaults, "table.columns.ordered_at", null));
+        this.deadLetters = deadLetters;
+        this.selectSql = PendingSql.select(exprs, tableName, readyWhere, orderBy);
+        this.selectLiveSql = deadLetters == null ? null : PendingSql.select(exprs, tableName,
+                "(" + readyWhere + ") AND " + deadLetters.excludeClause(name, tableName, idCol), orderBy);
+
+        List<String> sets = new ArrayList<>();
+        sets.add(deliveredAtCol + " = NOW()");
+        if (attemptsCol != null) sets.add(attemptsCol + " = " + attemptsCol + " + 1");
+        if (noteCol != null) sets.add(noteCol + " = 'ok'");
+        this.markDeliveredSql = "UPDATE " + tableName + " SET " + String.join(", ", sets) +
+                " WHERE " + idCol + " = ? AND " + deliveredAtCol + " IS NULL";
+
+        sets.clear();
+        if (attemptsCol != null) sets.add(attemptsCol + " = " + attemptsCol + " + 1");
+        if (noteCol != null) sets.add(noteCol + " = ?");
+        // без attempts и note — no-op, чтобы попытка всё равно проверила строку
+        if (sets.isEmpty()) sets.add(deliveredAtCol + " = " + deliveredAtCol);
+        this.failedHasNote = noteCol != null;
+        this.markFailedSql = "UPDATE " + tableName + " SET " + String.join(", ", sets) +
+                " WHERE " + idCol + " = ? AND " + deliveredAtCol + " IS NULL";
+
+        this.attrCols = new int[]{ATTEMPTS, ORDERED_AT};
+        this.attrExtractors = new Extractor[]{
+                attemptsCol != null ? ResultSet::getInt : (rs, col) -> 0,
+                ResultSet::getTimestamp
+        };
+    }
+
+    /** имя источника из файла/ключа name: нижний регистр, [a-z0-9_-], до 32 символов; null — недопустимое */
+    public static String sanitizeName(String raw) {
+        if (raw == null) return null;
+        String n = raw.trim().toLowerCase(Locale.ROOT);
+        return NAME.matcher(n).matches() ? n : null;
+    }
+
+    private static String opt(SafeConfig cfg, Map<String, String> defaults, String path, String def) {
+        String v = cfg.getString(path, defaults.getOrDefault(path, def));
+        return (v == null || v.isBlank()) ? null : v;
+    }
+
+    private static String required(SafeConfig cfg, Map<String, String> defaults, String path) {
+        String v = opt(cfg, defaults, path, null);
+        if (v == null) throw new IllegalArgumentException(path + " is required");
+        return v;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public String pendingSelectSql() {
+        // таблица карантина ещё не проверена или недоступна — опрос идёт без неё
+        return selectLiveSql != null && deadLetters.isReady() ? selectLiveSql : selectSql;
+    }
+
+    @Override
+    public List<RewardItem> fetchPending(int batchSize) throws Exception {
+        List<RewardItem> out = new ArrayList<>();
+        try (Connection c = db.getConnection();
+             PreparedStatement ps = c.prepareStatement(pendingSelectSql() + " LIMIT ?")) {
+            ps.setInt(1, batchSize);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    out.add(mapRow(rs));
+                }
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public RewardItem mapRow(ResultSet rs) throws SQLException {
+        int base = PendingSql.offset(rs);
+        long id = rs.getLong(base + ID);
+        String orderId = orderIdPrefix != null ? orderIdPrefix + id : rs.getString(base + ORDER_ID);
+
+        String tier = rs.getString(base + TIER);
+        if (tier == null || tier.isEmpty()) tier = defaultTier;
+
+        double amount = rs.getDouble(base + AMOUNT);
+        if (rs.wasNull()) amount = 0.0;
+
+        Object[] values = new Object[attrCols.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = attrExtractors[i].get(rs, base + attrCols[i]);
+        }
+        Timestamp orderedAt = (Timestamp) values[1];
+
+        return new RewardItem(id, orderId, rs.getString(base + NICKNAME), tier, amount,
+                rs.getString(base + CURRENCY), orderedAt == null ? 0L : orderedAt.getTime(), SCHEMA, values);
+    }
+
+    @Override
+    public boolean markDelivered(Connection txConn, long id) throws Exception {
+        try (PreparedStatement ps = txConn.prepareStatement(markDeliveredSql)) {
+            ps.setLong(1, id);
+            return ps.executeUpdate() == 1;
+        }
+    }
+
+    @Override
+    public boolean markFailed(Connection txConn, long id, String reason) throws Exception {
+        try (PreparedStatement ps = txConn.prepareStatement(markFailedSql)) {
+            int idx = 1;
+            if (failedHasNote) ps.setString(idx++, trim(reason));
+            ps.setLong(idx, id);
+            return ps.executeUpdate() == 1;
+        }
+    }
+
+    @Override
+    public void resetAttempts(Connection txConn, List<Long> ids) throws Exception {
+        if (attemptsCol == null || ids.isEmpty()) return;
+        String sql = "UPDATE " + tableName + " SET " + attemptsCol + " = 0" +
+                " WHERE " + idCol + " = ? AND " + deliveredAtCol + " IS NULL";
+        try (PreparedStatement ps = txConn.prepareStatement(sql)) {
+            for (long id : ids) {
+                ps.setLong(1, id);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private static String trim(String s) {
+        if (s == null) return "error";
+        s = s.replaceAll("[\\r\\n\\t]+", " ").trim();
+        return s.length() > 240 ? s.substring(0, 240) : s;
+    }
+}
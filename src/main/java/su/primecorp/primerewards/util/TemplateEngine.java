@@ -1,6 +1,7 @@
 package su.primecorp.primerewards.util;
 
 import java.util.Map;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -10,15 +11,22 @@ public final class TemplateEngine {
 
     public static String apply(String tpl, Map<String, String> ctx) {
         if (tpl == null || ctx == null) return tpl;
+        return apply(tpl, ctx::get);
+    }
+
+    /** значения запрашиваются лениво и только для ключей, встречающихся в шаблоне; null -> "" */
+    public static String apply(String tpl, Function<String, String> resolver) {
+        if (tpl == null || resolver == null) return tpl;
         Matcher m = P.matcher(tpl);
-        StringBuffer sb = new StringBuffer();
-        while (m.find()) {
-            String key = m.group(1);
-            String val = ctx.getOrDefault(key, "");
+        if (!m.find()) return tpl;
+        StringBuilder sb = new StringBuilder(tpl.length() + 16);
+        do {
+            String val = resolver.apply(m.group(1));
+            if (val == null) val = "";
             // экранирование потенциальных «опасных» символов в никнейме и др. под команды (минимум)
             val = val.replace('\n', ' ').replace('\r', ' ').replace('\t', ' ');
             m.appendReplacement(sb, Matcher.quoteReplacement(val));
-        }
+        } while (m.find());
         m.appendTail(sb);
         return sb.toString();
     }